@@ -0,0 +1,83 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.os.Debug;
+
+import java.util.Locale;
+
+/**
+ * per-stage allocation counters for the camera loop, based on the runtime thread allocation statistics
+ *
+ * begin() and end() of a stage have to be called from the same thread. Different stages may
+ * run on different threads. Values read from other threads are not synchronized, but good
+ * enough to detect that a stage started allocating again.
+ */
+@SuppressWarnings("deprecation") // Debug.*AllocCounting is deprecated, but still implemented by ART
+final class AllocationCounters {
+
+    enum Stage { Preprocess, Inference, Postprocess, Command }
+
+    private static final Stage[] stages = Stage.values();
+
+    private final int[] beginCount = new int[stages.length];
+    private final int[] beginSize = new int[stages.length];
+    private final long[] count = new long[stages.length];
+    private final long[] bytes = new long[stages.length];
+    private final long[] calls = new long[stages.length];
+    private boolean enabled;
+
+    void start() {
+        Debug.startAllocCounting();
+        enabled = true;
+    }
+
+    void stop() {
+        enabled = false;
+        Debug.stopAllocCounting();
+    }
+
+    void begin(Stage stage) {
+        if(!enabled)
+            return;
+        beginCount[stage.ordinal()] = Debug.getThreadAllocCount();
+        beginSize[stage.ordinal()] = Debug.getThreadAllocSize();
+    }
+
+    void end(Stage stage) {
+        if(!enabled)
+            return;
+        int i = stage.ordinal();
+        count[i] += Debug.getThreadAllocCount() - beginCount[i];
+        bytes[i] += Debug.getThreadAllocSize() - beginSize[i];
+        calls[i]++;
+    }
+
+    long getCount(Stage stage) { return count[stage.ordinal()]; }
+    long getBytes(Stage stage) { return bytes[stage.ordinal()]; }
+    long getCalls(Stage stage) { return calls[stage.ordinal()]; }
+
+    long getTotalCount() {
+        long total = 0;
+        for(long c : count)
+            total += c;
+        return total;
+    }
+
+    void reset() {
+        for(int i = 0; i < stages.length; i++) {
+            count[i] = 0;
+            bytes[i] = 0;
+            calls[i] = 0;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("allocations");
+        for(Stage stage : stages) {
+            int i = stage.ordinal();
+            sb.append(String.format(Locale.US, " %s=%d/%dB", stage, count[i], bytes[i]));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,119 @@
+package de.kai_morich.simple_usb_terminal;
+
+/**
+ * preallocated lock-free byte ring for one producer and one consumer thread
+ *
+ * Positions only increase and each is written by one side only. The producer copies
+ * data before publishing the new head with a volatile write, the consumer releases
+ * space by a volatile write of tail after it is done with the data, so both sides
+ * see complete data without locking.
+ */
+final class ByteRing {
+
+    /**
+     * up to two segments of an array, as data in the ring can wrap around
+     */
+    static final class Slice {
+        private byte[] array;
+        private int offset0, length0, offset1, length1;
+
+        Slice set(byte[] array, int offset, int length) {
+            return set(array, offset, length, 0, 0);
+        }
+
+        Slice set(byte[] array, int offset0, int length0, int offset1, int length1) {
+            this.array = array;
+            this.offset0 = offset0;
+            this.length0 = length0;
+            this.offset1 = offset1;
+            this.length1 = length1;
+            return this;
+        }
+
+        byte[] array() { return array; }
+        int segments() { return length1 > 0 ? 2 : length0 > 0 ? 1 : 0; }
+        int offset(int segment) { return segment == 0 ? offset0 : offset1; }
+        int length(int segment) { return segment == 0 ? length0 : length1; }
+        int length() { return length0 + length1; }
+
+        byte get(int index) {
+            return index < length0 ? array[offset0 + index] : array[offset1 + index - length0];
+        }
+
+        /**
+         * copy [index, index + length) of the slice
+         */
+        void get(int index, byte[] dst, int offset, int length) {
+            int first = Math.max(0, Math.min(length, length0 - index));
+            if(first > 0)
+                System.arraycopy(array, offset0 + index, dst, offset, first);
+            if(first < length)
+                System.arraycopy(array, offset1 + index + first - length0, dst, offset + first, length - first);
+        }
+
+        byte[] toArray() {
+            byte[] data = new byte[length()];
+            System.arraycopy(array, offset0, data, 0, length0);
+            System.arraycopy(array, offset1, data, length0, length1);
+            return data;
+        }
+    }
+
+    private final byte[] buffer;
+    private final int mask;
+    private volatile long head; // next write position, written by producer
+    private volatile long tail; // next read position, written by consumer
+
+    /**
+     * @param capacity rounded up to power of two
+     */
+    ByteRing(int capacity) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    int capacity() { return buffer.length; }
+
+    boolean isEmpty() { return head == tail; }
+
+    /**
+     * producer, free space
+     */
+    int writable() { return buffer.length - (int) (head - tail); }
+
+    /**
+     * producer
+     *
+     * @return number of bytes written, less than length if ring is full
+     */
+    int write(byte[] data, int offset, int length) {
+        long h = head;
+        int count = Math.min(length, buffer.length - (int) (h - tail));
+        int pos = (int) h & mask;
+        int first = Math.min(count, buffer.length - pos);
+        System.arraycopy(data, offset, buffer, pos, first);
+        System.arraycopy(data, offset + first, buffer, 0, count - first);
+        head = h + count;
+        return count;
+    }
+
+    /**
+     * consumer, all available data without copying. Valid until release()
+     */
+    Slice peek(Slice slice) {
+        long t = tail;
+        int available = (int) (head - t);
+        int pos = (int) t & mask;
+        int first = Math.min(available, buffer.length - pos);
+        return slice.set(buffer, pos, first, 0, available - first);
+    }
+
+    /**
+     * consumer, free space of data returned by peek()
+     */
+    void release(int length) {
+        tail = tail + length;
+    }
+
+}
@@ -0,0 +1,114 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * send robot motion commands without blocking the caller
+ *
+ * submit() only records the latest command, writing is done on an own thread:
+ * A changed command is sent after a short coalescing window, so rapid changes within
+ * the window result in a single write of the last command. Repeating the last sent
+ * command is suppressed, instead it is re-sent as keep-alive heartbeat if nothing
+ * else was sent for heartbeatMillis.
+ */
+final class CommandScheduler {
+
+    interface Sender {
+        /** called on scheduler thread, may block */
+        void send(char command) throws IOException;
+        /** called on scheduler thread */
+        void onSendError(char command, IOException e);
+    }
+
+    private final Sender sender;
+    private final long coalesceMillis, heartbeatMillis;
+    private final HandlerThread thread;
+    private final Handler handler;
+    private final Runnable sendRunnable, heartbeatRunnable;
+
+    private volatile char pending;
+    private volatile char lastSent = 0;
+    private volatile boolean sendScheduled;
+
+    // updated on caller and scheduler thread
+    private final AtomicLong submitted = new AtomicLong(), sent = new AtomicLong(), heartbeats = new AtomicLong(),
+            suppressed = new AtomicLong(), coalesced = new AtomicLong(), failed = new AtomicLong();
+
+    CommandScheduler(Sender sender, long coalesceMillis, long heartbeatMillis) {
+        this.sender = sender;
+        this.coalesceMillis = coalesceMillis;
+        this.heartbeatMillis = heartbeatMillis;
+        thread = new HandlerThread("command");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+        sendRunnable = this::sendPending; // w/o explicit Runnable, a new lambda would be created on each post
+        heartbeatRunnable = this::sendHeartbeat;
+    }
+
+    /**
+     * can be called from any thread, never blocks
+     */
+    synchronized void submit(char command) {
+        submitted.incrementAndGet();
+        pending = command;
+        if(sendScheduled) {
+            coalesced.incrementAndGet();
+        } else if(command == lastSent) {
+            suppressed.incrementAndGet();
+        } else {
+            sendScheduled = true;
+            handler.postDelayed(sendRunnable, coalesceMillis);
+        }
+    }
+
+    void stop() {
+        handler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+    }
+
+    /** last successfully sent command, 0 if none */
+    char getLastSent() { return lastSent; }
+
+    long getSubmitted() { return submitted.get(); }
+    long getSent() { return sent.get(); }
+    long getHeartbeats() { return heartbeats.get(); }
+    long getSuppressed() { return suppressed.get(); }
+    long getCoalesced() { return coalesced.get(); }
+    long getFailed() { return failed.get(); }
+
+    private void sendPending() {
+        char command;
+        synchronized (this) {
+            sendScheduled = false;
+            command = pending;
+        }
+        if(command != lastSent)
+            write(command);
+        else
+            suppressed.incrementAndGet(); // changed back within coalescing window
+    }
+
+    private void sendHeartbeat() {
+        heartbeats.incrementAndGet();
+        write(lastSent);
+    }
+
+    private void write(char command) {
+        handler.removeCallbacks(heartbeatRunnable);
+        try {
+            sender.send(command);
+            lastSent = command;
+            sent.incrementAndGet();
+        } catch (IOException e) {
+            failed.incrementAndGet();
+            sender.onSendError(command, e);
+        }
+        if(lastSent != 0 && heartbeatMillis > 0)
+            handler.postDelayed(heartbeatRunnable, heartbeatMillis);
+    }
+
+}
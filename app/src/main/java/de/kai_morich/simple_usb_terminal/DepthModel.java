@@ -0,0 +1,134 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * depth model interpreter with [1][h][w][3] input and [1][h][w](*[1]) output
+ *
+ * Input and output are fed and read in the tensor's own data type, FLOAT32, UINT8 or INT8.
+ * Quantized output stays raw in the output buffer and is only dequantized for the values
+ * that are actually read. The output buffer is allocated once and reused, until
+ * the input size is changed with resizeInput().
+ */
+final class DepthModel implements DepthZoneAnalyzer.DepthMap {
+
+    final Interpreter interpreter;
+    final DataType inputType, outputType;
+    final float inputScale, outputScale;
+    final int inputZeroPoint, outputZeroPoint;
+    volatile int inputWidth, inputHeight;   // changed by resizeInput() on inference thread
+    int outputWidth, outputHeight;
+
+    private ByteBuffer output;
+    private FloatBuffer outputFloats;
+    private final Object[] inputs = new Object[1];
+    private final Map<Integer, Object> outputs = new HashMap<>();
+
+    DepthModel(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        Tensor in = interpreter.getInputTensor(0);
+        Tensor out = interpreter.getOutputTensor(0);
+        inputType = in.dataType();
+        outputType = out.dataType();
+        checkType(inputType);
+        checkType(outputType);
+        inputScale = in.quantizationParams().getScale();
+        inputZeroPoint = in.quantizationParams().getZeroPoint();
+        outputScale = out.quantizationParams().getScale();
+        outputZeroPoint = out.quantizationParams().getZeroPoint();
+        initShapes();
+    }
+
+    private void initShapes() {
+        Tensor in = interpreter.getInputTensor(0);
+        Tensor out = interpreter.getOutputTensor(0);
+        inputHeight = in.shape()[1];
+        inputWidth = in.shape()[2];
+        outputHeight = out.shape()[1];
+        outputWidth = out.shape()[2];
+        output = ByteBuffer.allocateDirect(out.numBytes()).order(ByteOrder.nativeOrder());
+        outputFloats = outputType == DataType.FLOAT32 ? output.asFloatBuffer() : null;
+        outputs.put(0, output);
+    }
+
+    /**
+     * change input to [1][size][size][3], output size follows from the model.
+     * Throws IllegalArgumentException if the model does not support the new size,
+     * then the previous size is restored, so the model stays usable.
+     */
+    void resizeInput(int size) {
+        if(size == inputWidth && size == inputHeight)
+            return;
+        try {
+            interpreter.resizeInput(0, new int[]{1, size, size, 3});
+            interpreter.allocateTensors();
+        } catch (RuntimeException e) {
+            interpreter.resizeInput(0, new int[]{1, inputHeight, inputWidth, 3});
+            interpreter.allocateTensors();
+            throw e;
+        }
+        initShapes();
+    }
+
+    private static void checkType(DataType type) {
+        if(type != DataType.FLOAT32 && type != DataType.UINT8 && type != DataType.INT8)
+            throw new IllegalArgumentException("unsupported tensor type " + type);
+    }
+
+    TensorPreprocessor createPreprocessor() {
+        return new TensorPreprocessor(inputWidth, inputHeight, inputType, inputScale, inputZeroPoint);
+    }
+
+    TensorPreprocessor createPreprocessor(int size) {
+        return new TensorPreprocessor(size, size, inputType, inputScale, inputZeroPoint);
+    }
+
+    void run(ByteBuffer input) {
+        inputs[0] = input;
+        output.rewind();
+        interpreter.runForMultipleInputsOutputs(inputs, outputs);
+    }
+
+    @Override
+    public int getWidth() {
+        return outputWidth;
+    }
+
+    @Override
+    public int getHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * raw output value, for quantized output types the unscaled integer
+     */
+    float getRaw(int index) {
+        switch (outputType) {
+            case UINT8: return output.get(index) & 0xff;
+            case INT8:  return output.get(index);
+            default:    return outputFloats.get(index);
+        }
+    }
+
+    float dequantize(float raw) {
+        return outputType == DataType.FLOAT32 ? raw : (raw - outputZeroPoint) * outputScale;
+    }
+
+    @Override
+    public float get(int index) {
+        return dequantize(getRaw(index));
+    }
+
+    void close() {
+        interpreter.close();
+    }
+
+}
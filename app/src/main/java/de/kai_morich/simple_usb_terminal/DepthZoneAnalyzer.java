@@ -0,0 +1,197 @@
+package de.kai_morich.simple_usb_terminal;
+
+/**
+ * single pass statistics over a grid of zones of a relative inverse depth map (larger = closer)
+ *
+ * The upper part of the map is split into columns x rows zones, below is one floor band zone.
+ * For every zone the mean and a robust 'near' value (90th percentile, so single noisy pixels
+ * don't trigger) are calculated, normalized to [0,1] by the range of the whole map.
+ *
+ * Percentiles use a histogram binned by the range of the previous map, which avoids a
+ * second pass. Results can be smoothed over time with an exponential moving average, to
+ * suppress flicker between frames. Only primitive arrays are used, allocated in the constructor or
+ * when the map size changes.
+ */
+final class DepthZoneAnalyzer {
+
+    interface DepthMap {
+        int getWidth();
+        int getHeight();
+        float get(int index);
+    }
+
+    private static final int BINS = 32;
+    private static final float NEAR_PERCENTILE = 0.9f;
+
+    final int columns, rows;
+    private final float floorBand;
+    private final int stride;
+    private final float smoothing;
+    private final int zones;
+
+    private final int[] count;
+    private final float[] sum, zoneMax;
+    private final int[] histogram;
+    private final float[] mean, near;
+    private int[] columnOfX = new int[0];
+    private int width, height;
+
+    private boolean hasBinRange, hasResult;
+    private float binMin, binScale;
+    private float minValue, maxValue;
+
+    /**
+     * @param floorBand fraction of map height used as floor zone, e.g. 0.25
+     * @param stride analyze every stride'th pixel in x and y
+     * @param smoothing weight of the new map in results, 1 for no smoothing
+     */
+    DepthZoneAnalyzer(int columns, int rows, float floorBand, int stride, float smoothing) {
+        this.columns = columns;
+        this.rows = rows;
+        this.floorBand = floorBand;
+        this.stride = stride;
+        this.smoothing = smoothing;
+        zones = columns * rows + 1;
+        count = new int[zones];
+        sum = new float[zones];
+        zoneMax = new float[zones];
+        histogram = new int[zones * BINS];
+        mean = new float[zones];
+        near = new float[zones];
+    }
+
+    int zone(int column, int row) { return row * columns + column; }
+    int floorZone() { return zones - 1; }
+
+    /** normalized mean of zone */
+    float getMean(int zone) { return mean[zone]; }
+    /** normalized 90th percentile of zone */
+    float getNear(int zone) { return near[zone]; }
+    /** raw range of the whole map */
+    float getMin() { return minValue; }
+    float getMax() { return maxValue; }
+
+    void analyze(DepthMap map) {
+        int w = map.getWidth();
+        int h = map.getHeight();
+        if(w != width || h != height) {
+            width = w;
+            height = h;
+            columnOfX = new int[w];
+            for(int x = 0; x < w; x++)
+                columnOfX[x] = x * columns / w;
+            hasBinRange = false;
+            hasResult = false;
+        }
+        for(int z = 0; z < zones; z++) {
+            count[z] = 0;
+            sum[z] = 0;
+            zoneMax[z] = -Float.MAX_VALUE;
+        }
+        for(int i = 0; i < histogram.length; i++)
+            histogram[i] = 0;
+
+        int floorStart = Math.max(1, Math.round(h * (1 - floorBand)));
+        float gMin = Float.MAX_VALUE;
+        float gMax = -Float.MAX_VALUE;
+        for(int y = 0; y < h; y += stride) {
+            int rowZone = y < floorStart ? (y * rows / floorStart) * columns : zones - 1;
+            int rowIndex = y * w;
+            for(int x = 0; x < w; x += stride) {
+                float v = map.get(rowIndex + x);
+                int z = rowZone == zones - 1 ? rowZone : rowZone + columnOfX[x];
+                count[z]++;
+                sum[z] += v;
+                if(v > zoneMax[z]) zoneMax[z] = v;
+                if(v < gMin) gMin = v;
+                if(v > gMax) gMax = v;
+                if(hasBinRange) {
+                    int bin = (int) ((v - binMin) * binScale);
+                    if(bin < 0) bin = 0; else if(bin >= BINS) bin = BINS - 1;
+                    histogram[z * BINS + bin]++;
+                }
+            }
+        }
+
+        float range = gMax - gMin;
+        if(range == 0) range = 1;
+        for(int z = 0; z < zones; z++) {
+            if(count[z] == 0) {
+                mean[z] = 0;
+                near[z] = 0;
+                continue;
+            }
+            float newMean = (sum[z] / count[z] - gMin) / range;
+            float nearRaw = zoneMax[z];
+            if(hasBinRange) {
+                int limit = (int) (count[z] * (1 - NEAR_PERCENTILE));
+                int cumulative = 0;
+                for(int bin = BINS - 1; bin >= 0; bin--) {
+                    cumulative += histogram[z * BINS + bin];
+                    if(cumulative > limit) {
+                        // top bin also holds values beyond previous range, then use zone max
+                        if(bin < BINS - 1)
+                            nearRaw = Math.min(zoneMax[z], binMin + (bin + 1) / binScale);
+                        break;
+                    }
+                }
+            }
+            float newNear = Math.max(0, Math.min(1, (nearRaw - gMin) / range));
+            if(hasResult) {
+                mean[z] += smoothing * (newMean - mean[z]);
+                near[z] += smoothing * (newNear - near[z]);
+            } else {
+                mean[z] = newMean;
+                near[z] = newNear;
+            }
+        }
+        hasResult = true;
+        minValue = gMin;
+        maxValue = gMax;
+        binMin = gMin;
+        binScale = BINS / range;
+        hasBinRange = true;
+    }
+
+    /** raw value at the center of a map */
+    static float center(DepthMap map) {
+        return map.get((map.getHeight() / 2) * map.getWidth() + map.getWidth() / 2);
+    }
+
+    /** raw value normalized to [0,1] by the range of the last analyzed map */
+    float normalize(float value) {
+        float range = maxValue - minValue;
+        if(range == 0) // prevent divide-by-zero
+            range = 1;
+        return (value - minValue) / range;
+    }
+
+    /**
+     * steering command from the last analyzed map
+     *
+     * 'f' if the center columns are clear, else turn 'l' or 'r' to the clearer side,
+     * or 'b' if both sides are blocked too. Also 'b' if the floor band mean is far away
+     * (below floorMinimum), which indicates a drop-off in front of the robot.
+     */
+    char decide(float obstacleThreshold, float floorMinimum) {
+        int centerLast = columns / 2;
+        int centerFirst = columns % 2 == 0 ? centerLast - 1 : centerLast;
+        float centerNear = 0, leftNear = 0, rightNear = 0;
+        for(int row = 0; row < rows; row++) {
+            for(int column = 0; column < columns; column++) {
+                float v = near[zone(column, row)];
+                if(column < centerFirst)     leftNear = Math.max(leftNear, v);
+                else if(column > centerLast) rightNear = Math.max(rightNear, v);
+                else                         centerNear = Math.max(centerNear, v);
+            }
+        }
+        if(mean[floorZone()] < floorMinimum)
+            return 'b';
+        if(centerNear <= obstacleThreshold)
+            return 'f';
+        if(leftNear > obstacleThreshold && rightNear > obstacleThreshold)
+            return 'b';
+        return leftNear < rightNear ? 'l' : 'r';
+    }
+
+}
@@ -0,0 +1,184 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.io.IOException;
+
+/**
+ * compact binary framing for robot control
+ *
+ *   sync 0xA5 | length | type | payload[length] | crc16 high | crc16 low
+ *
+ * The CRC-16/CCITT-FALSE covers length, type and payload. The sync byte lets the
+ * decoder re-synchronize after garbage or a CRC error. Several frames can be
+ * batched by the encoder and written in a single USB transfer.
+ *
+ * Pure Java, the port is abstracted as Sink, so a byte array can stand in for it.
+ */
+final class FrameProtocol {
+
+    static final int SYNC = 0xA5;
+    static final int MAX_PAYLOAD = 255;
+    static final int OVERHEAD = 5;
+
+    // host -> robot
+    static final int TYPE_MOVE = 0x01;      // int8 speed, int8 turn, -100..100
+    static final int TYPE_STOP = 0x02;
+    static final int TYPE_HEARTBEAT = 0x03;
+    // robot -> host
+    static final int TYPE_STATUS = 0x81;
+    static final int TYPE_ACK = 0x82;
+
+    interface Sink {
+        void write(byte[] data, int length) throws IOException;
+    }
+
+    private FrameProtocol() {}
+
+    static int crc16(int crc, byte[] data, int offset, int length) {
+        for(int i = offset; i < offset + length; i++)
+            crc = crc16(crc, data[i]);
+        return crc;
+    }
+
+    static int crc16(int crc, byte b) {
+        crc ^= (b & 0xff) << 8;
+        for(int bit = 0; bit < 8; bit++)
+            crc = (crc & 0x8000) != 0 ? (crc << 1) ^ 0x1021 : crc << 1;
+        return crc & 0xffff;
+    }
+
+    /**
+     * collect frames in a reused buffer, flush() writes all of them at once
+     */
+    static final class Encoder {
+        private final byte[] buffer;
+        private final byte[] move = new byte[2];
+        private int length;
+
+        Encoder(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        int length() { return length; }
+        byte[] buffer() { return buffer; }
+
+        Encoder add(int type, byte[] payload, int offset, int payloadLength) {
+            if(payloadLength > MAX_PAYLOAD)
+                throw new IllegalArgumentException("payload too large");
+            if(length + payloadLength + OVERHEAD > buffer.length)
+                throw new IllegalStateException("encoder buffer full");
+            int start = length;
+            buffer[length++] = (byte) SYNC;
+            buffer[length++] = (byte) payloadLength;
+            buffer[length++] = (byte) type;
+            System.arraycopy(payload, offset, buffer, length, payloadLength);
+            length += payloadLength;
+            int crc = crc16(0xffff, buffer, start + 1, payloadLength + 2);
+            buffer[length++] = (byte) (crc >> 8);
+            buffer[length++] = (byte) crc;
+            return this;
+        }
+
+        Encoder add(int type) {
+            return add(type, buffer, 0, 0);
+        }
+
+        Encoder addMove(int speed, int turn) {
+            move[0] = (byte) Math.max(-100, Math.min(100, speed));
+            move[1] = (byte) Math.max(-100, Math.min(100, turn));
+            return add(TYPE_MOVE, move, 0, 2);
+        }
+
+        void flush(Sink sink) throws IOException {
+            if(length == 0)
+                return;
+            try {
+                sink.write(buffer, length);
+            } finally {
+                length = 0;
+            }
+        }
+    }
+
+    /**
+     * incremental decoder, frames may be split across any number of feed() calls
+     *
+     * On CRC error or invalid length, decoding resumes at the byte after the presumed
+     * sync byte, so a sync value within garbage or payload loses no valid frame.
+     */
+    static final class Decoder {
+
+        interface Listener {
+            /** payload starts at offset 0 and is only valid during the call */
+            void onFrame(int type, byte[] payload, int length);
+        }
+
+        private final Listener listener;
+        private final int maxPayload;
+        private final byte[] frame;
+        private final byte[] payload;
+        private int position;
+        private long frames, crcErrors, skipped;
+
+        /**
+         * @param maxPayload longer frames are treated as corrupt
+         */
+        Decoder(Listener listener, int maxPayload) {
+            this.listener = listener;
+            this.maxPayload = Math.min(maxPayload, MAX_PAYLOAD);
+            frame = new byte[this.maxPayload + OVERHEAD];
+            payload = new byte[this.maxPayload];
+        }
+
+        long getFrames() { return frames; }
+        long getCrcErrors() { return crcErrors; }
+        long getSkippedBytes() { return skipped; }
+
+        void feed(byte[] data, int offset, int count) {
+            for(int i = offset; i < offset + count; i++) {
+                byte b = data[i];
+                if(position == 0 && (b & 0xff) != SYNC) {
+                    skipped++;
+                    continue;
+                }
+                frame[position++] = b;
+                decode();
+            }
+        }
+
+        private void decode() {
+            while(position >= 2) {
+                int length = frame[1] & 0xff;
+                if(length > maxPayload) {
+                    discard(1);
+                    continue;
+                }
+                int frameLength = length + OVERHEAD;
+                if(position < frameLength)
+                    return;
+                int crc = crc16(0xffff, frame, 1, length + 2);
+                int receivedCrc = (frame[length + 3] & 0xff) << 8 | (frame[length + 4] & 0xff);
+                if(crc != receivedCrc) {
+                    crcErrors++;
+                    discard(1);
+                    continue;
+                }
+                frames++;
+                System.arraycopy(frame, 3, payload, 0, length);
+                listener.onFrame(frame[2] & 0xff, payload, length);
+                discard(frameLength);
+            }
+        }
+
+        /** drop bytes from frame start and continue with next sync byte */
+        private void discard(int count) {
+            int next = count;
+            while(next < position && (frame[next] & 0xff) != SYNC)
+                next++;
+            skipped += next - count;
+            if(count == 1) skipped++;
+            System.arraycopy(frame, next, frame, 0, position - next);
+            position -= next;
+        }
+    }
+
+}
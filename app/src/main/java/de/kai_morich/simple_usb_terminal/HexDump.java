@@ -0,0 +1,105 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * offset / hex / ASCII dump of raw received bytes, shown in a ListView
+ *
+ * Bytes are kept in fixed size blocks, so appending never copies received data twice
+ * and the oldest block is dropped and reused when the limit is reached. Rows are only
+ * formatted in getView(), i.e. when they scroll into view, so the cost of a large
+ * capture is the byte store, not its text representation.
+ */
+final class HexDump extends BaseAdapter {
+
+    private static final int BLOCK_SIZE = 64 * 1024; // multiple of HEX_DUMP_BYTES, so rows never span blocks
+
+    private final byte[][] blocks;
+    private int first, count;   // ring index of oldest block, number of used blocks
+    private int lastLength;     // used bytes in newest block
+    private long offset;        // of first byte in oldest block
+
+    HexDump(int maxBytes) {
+        blocks = new byte[Math.max(1, maxBytes / BLOCK_SIZE)][];
+    }
+
+    void append(byte[] data, int begin, int end) {
+        while(begin < end) {
+            if(count == 0 || lastLength == BLOCK_SIZE)
+                addBlock();
+            byte[] block = blocks[(first + count - 1) % blocks.length];
+            int length = Math.min(end - begin, BLOCK_SIZE - lastLength);
+            System.arraycopy(data, begin, block, lastLength, length);
+            lastLength += length;
+            begin += length;
+        }
+        notifyDataSetChanged();
+    }
+
+    void clear() {
+        for(int i = 0; i < blocks.length; i++)
+            blocks[i] = null;
+        first = count = lastLength = 0;
+        offset = 0;
+        notifyDataSetChanged();
+    }
+
+    long size() {
+        return count == 0 ? 0 : (long) (count - 1) * BLOCK_SIZE + lastLength;
+    }
+
+    private void addBlock() {
+        byte[] block = null;
+        if(count == blocks.length) { // reuse oldest
+            block = blocks[first];
+            blocks[first] = null;
+            first = (first + 1) % blocks.length;
+            count--;
+            offset += BLOCK_SIZE;
+        }
+        if(block == null)
+            block = new byte[BLOCK_SIZE];
+        blocks[(first + count) % blocks.length] = block;
+        count++;
+        lastLength = 0;
+    }
+
+    /*
+     * Adapter
+     */
+    @Override
+    public int getCount() {
+        return (int) ((size() + TextCodec.HEX_DUMP_BYTES - 1) / TextCodec.HEX_DUMP_BYTES);
+    }
+
+    @Override
+    public Object getItem(int position) {
+        return null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View view, ViewGroup parent) {
+        if(view == null) {
+            view = LayoutInflater.from(parent.getContext()).inflate(R.layout.hex_dump_line, parent, false);
+            view.setTag(new char[TextCodec.HEX_DUMP_CHARS]); // TextView keeps the array, so one per row view
+        }
+        long start = (long) position * TextCodec.HEX_DUMP_BYTES;
+        int block = (int) (start / BLOCK_SIZE);
+        int begin = (int) (start % BLOCK_SIZE);
+        int end = Math.min(begin + TextCodec.HEX_DUMP_BYTES, block == count - 1 ? lastLength : BLOCK_SIZE);
+        char[] row = (char[]) view.getTag();
+        int length = TextCodec.toHexDumpRow(offset + start, blocks[(first + block) % blocks.length], begin, end, row, 0);
+        ((TextView) view).setText(row, 0, length);
+        return view;
+    }
+
+}
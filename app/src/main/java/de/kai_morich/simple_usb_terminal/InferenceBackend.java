@@ -0,0 +1,176 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import org.tensorflow.lite.Interpreter;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * create TFLite interpreters with configurable CPU execution options
+ *
+ * On first launch select() probes thread count, XNNPACK and FP16 relaxation combinations
+ * with the actual model and remembers the fastest one per model and device build.
+ * Probing takes a few seconds, so call select() from a background thread.
+ */
+final class InferenceBackend {
+
+    private final static String TAG = InferenceBackend.class.getSimpleName();
+    private static final String PREFERENCES = "inference";
+    private static final int PROBE_WARMUP_RUNS = 2;
+    private static final int PROBE_RUNS = 5;
+
+    static final class Config {
+        static final Config DEFAULT = new Config(-1, true, false); // -1: TFLite default thread count
+
+        final int threads;
+        final boolean xnnpack;
+        final boolean fp16;
+
+        Config(int threads, boolean xnnpack, boolean fp16) {
+            this.threads = threads;
+            this.xnnpack = xnnpack;
+            this.fp16 = fp16;
+        }
+
+        Interpreter.Options toOptions() {
+            return new Interpreter.Options()
+                    .setNumThreads(threads)
+                    .setUseXNNPACK(xnnpack)
+                    .setAllowFp16PrecisionForFp32(fp16);
+        }
+
+        String serialize() {
+            return threads + "," + xnnpack + "," + fp16;
+        }
+
+        static Config parse(String s) {
+            if(s == null)
+                return null;
+            String[] v = s.split(",");
+            if(v.length != 3)
+                return null;
+            try {
+                return new Config(Integer.parseInt(v[0]), Boolean.parseBoolean(v[1]), Boolean.parseBoolean(v[2]));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "threads=%d xnnpack=%b fp16=%b", threads, xnnpack, fp16);
+        }
+    }
+
+    private InferenceBackend() {}
+
+    static MappedByteBuffer loadModel(AssetManager assetManager, String modelPath) throws IOException {
+        try (AssetFileDescriptor fileDescriptor = assetManager.openFd(modelPath);
+             FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor())) {
+            FileChannel fileChannel = inputStream.getChannel();
+            long startOffset = fileDescriptor.getStartOffset();
+            long declaredLength = fileDescriptor.getDeclaredLength();
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+        }
+    }
+
+    static Interpreter create(ByteBuffer model, Config config) {
+        return new Interpreter(model, config.toOptions());
+    }
+
+    /**
+     * remembered configuration, or probe and remember the fastest one
+     */
+    static Config select(Context context, ByteBuffer model, String modelName) {
+        SharedPreferences preferences = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+        String key = modelName + "@" + Build.FINGERPRINT;
+        Config config = Config.parse(preferences.getString(key, null));
+        if(config != null)
+            return config;
+        config = probe(model);
+        preferences.edit().putString(key, config.serialize()).apply();
+        return config;
+    }
+
+    static void forget(Context context) {
+        context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE).edit().clear().apply();
+    }
+
+    static Config probe(ByteBuffer model) {
+        Config best = Config.DEFAULT;
+        long bestNanos = Long.MAX_VALUE;
+        for(Config config : candidates()) {
+            long nanos;
+            try {
+                nanos = measure(model, config);
+            } catch (Exception e) { // e.g. option not supported by model
+                Log.d(TAG, "probe " + config + " failed", e);
+                continue;
+            }
+            Log.d(TAG, String.format(Locale.US, "probe %s: %.2f ms", config, nanos / 1e6));
+            if(nanos < bestNanos) {
+                bestNanos = nanos;
+                best = config;
+            }
+        }
+        Log.d(TAG, "selected " + best);
+        return best;
+    }
+
+    private static List<Config> candidates() {
+        int cores = Runtime.getRuntime().availableProcessors();
+        List<Integer> threads = new ArrayList<>();
+        for(int t : Arrays.asList(1, 2, 4, cores))
+            if(t <= cores && !threads.contains(t))
+                threads.add(t);
+        List<Config> configs = new ArrayList<>();
+        for(int t : threads) {
+            for(boolean xnnpack : new boolean[]{true, false}) {
+                configs.add(new Config(t, xnnpack, false));
+                configs.add(new Config(t, xnnpack, true));
+            }
+        }
+        return configs;
+    }
+
+    /**
+     * median duration of a run with zero input
+     */
+    private static long measure(ByteBuffer model, Config config) {
+        Interpreter interpreter = create(model, config);
+        try {
+            ByteBuffer input = ByteBuffer.allocateDirect(interpreter.getInputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+            ByteBuffer output = ByteBuffer.allocateDirect(interpreter.getOutputTensor(0).numBytes()).order(ByteOrder.nativeOrder());
+            long[] nanos = new long[PROBE_RUNS];
+            for(int i = -PROBE_WARMUP_RUNS; i < PROBE_RUNS; i++) {
+                input.rewind();
+                output.rewind();
+                long start = SystemClock.elapsedRealtimeNanos();
+                interpreter.run(input, output);
+                if(i >= 0)
+                    nanos[i] = SystemClock.elapsedRealtimeNanos() - start;
+            }
+            Arrays.sort(nanos);
+            return nanos[PROBE_RUNS / 2];
+        } finally {
+            interpreter.close();
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.util.Locale;
+
+/**
+ * keep vision loop frame processing time within a budget
+ *
+ * The average (exponential moving) frame time is compared to the budget. If it is above,
+ * the next lower quality level is used, i.e. a lower analysis rate or a smaller model input
+ * size. If it is well below the budget, the next higher level is restored. After a level
+ * change, some frames are measured before the next change, to let the average settle.
+ */
+final class LatencyGovernor {
+
+    static final class Level {
+        final int frameInterval; // analyze every n'th camera frame
+        final int inputSize;     // square model input size
+
+        Level(int frameInterval, int inputSize) {
+            this.frameInterval = frameInterval;
+            this.inputSize = inputSize;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "1/%d frames, %dx%d input", frameInterval, inputSize, inputSize);
+        }
+    }
+
+    private static final float AVERAGE_WEIGHT = 0.1f;
+    private static final float RESTORE_FRACTION = 0.6f; // restore if average below 60% of budget
+    private static final int SETTLE_FRAMES = 15;
+
+    private final long budgetNanos;
+    private final Level[] levels;
+    private int maxLevel;
+    private volatile int level;
+    private float averageNanos;
+    private int framesSinceChange;
+
+    /**
+     * @param levels ordered from best to lowest quality
+     */
+    LatencyGovernor(long budgetNanos, Level[] levels) {
+        this.budgetNanos = budgetNanos;
+        this.levels = levels;
+        this.maxLevel = levels.length - 1;
+    }
+
+    Level getLevel() {
+        return levels[level];
+    }
+
+    long getAverageNanos() {
+        return (long) averageNanos;
+    }
+
+    /**
+     * stop using this and following levels, e.g. if model input can't be resized
+     */
+    void limit(Level unsupported) {
+        for(int i = 1; i < levels.length; i++) {
+            if(levels[i] == unsupported) {
+                maxLevel = Math.min(maxLevel, i - 1);
+                if(level > maxLevel)
+                    level = maxLevel;
+            }
+        }
+    }
+
+    /**
+     * @return true if level changed
+     */
+    boolean record(long frameNanos) {
+        averageNanos = averageNanos == 0 ? frameNanos : averageNanos + AVERAGE_WEIGHT * (frameNanos - averageNanos);
+        if(++framesSinceChange < SETTLE_FRAMES)
+            return false;
+        int newLevel = level;
+        if(averageNanos > budgetNanos && level < maxLevel)
+            newLevel = level + 1;
+        else if(averageNanos < budgetNanos * RESTORE_FRACTION && level > 0)
+            newLevel = level - 1;
+        if(newLevel == level)
+            return false;
+        level = newLevel;
+        framesSinceChange = 0;
+        return true;
+    }
+
+}
@@ -0,0 +1,78 @@
+package de.kai_morich.simple_usb_terminal;
+
+/**
+ * latency histogram with preallocated log-linear buckets
+ *
+ * Values below 16 ns have an own bucket, above each power of two is split into 16
+ * buckets, so percentiles have ~6% resolution from nanoseconds to minutes.
+ * record() is a few integer operations without allocation.
+ *
+ * Recording is expected from a single thread per histogram. Readers on other threads
+ * can see slightly inconsistent counts, which is acceptable for statistics.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int MAX_SHIFT = 36; // up to 2^41 ns = ~36 minutes
+    private static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+    private final long[] counts = new long[BUCKETS];
+    private volatile long count;
+    private volatile long max;
+
+    void record(long nanos) {
+        if(nanos < 0)
+            nanos = 0;
+        counts[index(nanos)]++;
+        if(nanos > max)
+            max = nanos;
+        count++;
+    }
+
+    long getCount() { return count; }
+    long getMax() { return max; }
+
+    /**
+     * @param percentile 0..100
+     * @return upper bound of the bucket containing the percentile, 0 if empty
+     */
+    long getPercentile(double percentile) {
+        long total = count;
+        if(total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(upperBound(i), max);
+        }
+        return max;
+    }
+
+    void reset() {
+        for(int i = 0; i < BUCKETS; i++)
+            counts[i] = 0;
+        count = 0;
+        max = 0;
+    }
+
+    static int index(long value) {
+        if(value < SUB_BUCKETS)
+            return (int) value;
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        if(shift > MAX_SHIFT)
+            return BUCKETS - 1;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    static long upperBound(int index) {
+        if(index < SUB_BUCKETS)
+            return index;
+        int shift = index / SUB_BUCKETS - 1;
+        long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.util.Locale;
+
+/**
+ * process wide latency histograms per stage of the vision and serial pipelines
+ *
+ * Durations are measured with System.nanoTime() around the stage and recorded
+ * without allocation. summary() with p50/p95/p99 of stages with data is pinned
+ * on top of the debug overlay, dump() lists all stages.
+ */
+final class LatencyStats {
+
+    enum Stage {
+        Preprocess,     // YUV conversion, resize and normalization in one pass by TensorPreprocessor
+        Queue,          // wait for inference thread
+        Inference,      // DepthModel.run
+        Postprocess,    // zone analysis and decision
+        SerialWrite,    // command write to serial port
+        SerialRead,     // SerialSocket.onNewData until shown by TerminalFragment.receive
+        Receive,        // TerminalFragment.receive
+    }
+
+    private static final LatencyHistogram[] histograms = new LatencyHistogram[Stage.values().length];
+
+    static {
+        for(int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    private LatencyStats() {}
+
+    static LatencyHistogram get(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    static void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    static void reset() {
+        for(LatencyHistogram histogram : histograms)
+            histogram.reset();
+    }
+
+    /**
+     * p50 / p95 / p99 in milliseconds of stages with data, one line per stage
+     */
+    static String summary() {
+        StringBuilder sb = new StringBuilder("p50/p95/p99 ms");
+        for(Stage stage : Stage.values()) {
+            LatencyHistogram histogram = get(stage);
+            if(histogram.getCount() > 0)
+                sb.append(String.format(Locale.US, "\n%s %.1f/%.1f/%.1f", stage, histogram.getPercentile(50) / 1e6,
+                        histogram.getPercentile(95) / 1e6, histogram.getPercentile(99) / 1e6));
+        }
+        return sb.toString();
+    }
+
+    static String dump() {
+        StringBuilder sb = new StringBuilder("stage: count, p50 / p95 / p99 / max ms");
+        for(Stage stage : Stage.values()) {
+            LatencyHistogram histogram = get(stage);
+            sb.append(String.format(Locale.US, "\n%s: %d, %.2f / %.2f / %.2f / %.2f", stage, histogram.getCount(),
+                    histogram.getPercentile(50) / 1e6, histogram.getPercentile(95) / 1e6,
+                    histogram.getPercentile(99) / 1e6, histogram.getMax() / 1e6));
+        }
+        return sb.toString();
+    }
+
+}
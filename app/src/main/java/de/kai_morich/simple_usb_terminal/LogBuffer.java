@@ -0,0 +1,76 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.view.Choreographer;
+import android.widget.TextView;
+
+/**
+ * fixed capacity ring buffer of log lines, shown in a TextView
+ *
+ * append() can be called from any thread and only stores the line. Rendering is done
+ * on the next display frame, so many lines appended within one frame result in a
+ * single setText() with the latest lines.
+ */
+final class LogBuffer implements Choreographer.FrameCallback {
+
+    private final String[] lines;
+    private final TextView view;
+    private final Choreographer choreographer;
+    private final StringBuilder text = new StringBuilder();
+    private String header;  // shown above the lines, not scrolled away
+    private int next, count;
+    private boolean renderScheduled;
+
+    /**
+     * call on UI thread
+     */
+    LogBuffer(int capacity, TextView view) {
+        this.lines = new String[capacity];
+        this.view = view;
+        this.choreographer = Choreographer.getInstance();
+    }
+
+    /**
+     * can be called from any thread
+     */
+    void append(String line) {
+        boolean schedule;
+        synchronized (lines) {
+            lines[next] = line;
+            next = (next + 1) % lines.length;
+            if(count < lines.length)
+                count++;
+            schedule = !renderScheduled;
+            renderScheduled = true;
+        }
+        if(schedule)
+            choreographer.postFrameCallback(this);
+    }
+
+    /**
+     * can be called from any thread
+     */
+    void setHeader(String header) {
+        boolean schedule;
+        synchronized (lines) {
+            this.header = header;
+            schedule = !renderScheduled;
+            renderScheduled = true;
+        }
+        if(schedule)
+            choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        text.setLength(0);
+        synchronized (lines) {
+            renderScheduled = false;
+            if(header != null)
+                text.append(header).append('\n');
+            for(int i = count; i > 0; i--)
+                text.append(lines[(next - i + lines.length) % lines.length]).append('\n');
+        }
+        view.setText(text);
+    }
+
+}
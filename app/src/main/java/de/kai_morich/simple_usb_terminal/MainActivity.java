@@ -16,7 +16,6 @@ import androidx.appcompat.app.AppCompatActivity;
 import androidx.appcompat.widget.Toolbar;
 import androidx.camera.core.CameraSelector;
 import androidx.camera.core.ImageAnalysis;
-import androidx.camera.core.ImageProxy;
 import androidx.camera.core.Preview;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
@@ -28,22 +27,19 @@ import com.google.common.util.concurrent.ListenableFuture;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
+import com.hoho.android.usbserial.util.SerialInputOutputManager;
 
-import java.nio.ByteBuffer;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 // ✅ Step 1: TensorFlow Lite and model-loading imports
-import org.tensorflow.lite.Interpreter;
-import org.tensorflow.lite.support.image.TensorImage;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
-import org.tensorflow.lite.DataType;
-
-import android.graphics.Bitmap;
-import android.content.res.AssetFileDescriptor;
-import java.io.FileInputStream;
-import java.nio.channels.FileChannel;
+
 import java.nio.MappedByteBuffer;
 
 @androidx.camera.core.ExperimentalGetImage
@@ -53,40 +49,76 @@ private static final int REQUEST_CAMERA_PERMISSION = 10;
 private PreviewView previewView;  
 private TextView debugText;  
 
-private UsbSerialPort serialPort;  
+// ✅ Only set once opened, commands are not scheduled without a port
+private volatile UsbSerialPort serialPort;  
 private UsbManager usbManager;  
 private char lastCommand = '-';  
+private boolean sendFailing; // command scheduler thread, log only first error of a failure run
 private boolean obstacleDetected = false;  
-private boolean scanning = false;  
-private int leftScan = 0;  
-private int rightScan = 0;  
-
-// ✅ Step 2: MiDaS model interpreter and input size  
-private Interpreter tflite;  
-private final int INPUT_WIDTH = 256;  
-private final int INPUT_HEIGHT = 256;  
-
-private final StringBuilder fullLog = new StringBuilder();  
-
-private void appendToLog(String msg) {  
-    Log.d("AppLog", msg);  
-    runOnUiThread(() -> {  
-        fullLog.append(msg).append("\n");  
-        String[] lines = fullLog.toString().split("\n");  
-        if (lines.length > 20) {  
-            StringBuilder trimmed = new StringBuilder();  
-            for (int i = lines.length - 20; i < lines.length; i++) {  
-                trimmed.append(lines[i]).append("\n");  
-            }  
-            fullLog.setLength(0);  
-            fullLog.append(trimmed);  
-        }  
-        debugText.setText(fullLog.toString());  
-    });  
-}  
 
-private YuvToRgbConverter converter;  
-private Bitmap bitmapBuffer;  
+// ✅ Step 2: MiDaS model, input size and tensor types are taken from the model file
+// preprocessing runs on the camera analyzer thread, inference and decision on the pipeline thread
+private volatile VisionPipeline pipeline; // null until model loaded in background
+
+// ✅ Buffers reused for every frame, so the camera loop creates no garbage after warm-up
+private final byte[] commandBuffer = new byte[1];
+
+// ✅ Commands are written on an own thread: repeated commands are suppressed and replaced
+// by a keep-alive heartbeat, rapid changes within the coalescing window are merged
+private static final long COMMAND_COALESCE_MILLIS = 30;
+private static final long COMMAND_HEARTBEAT_MILLIS = 1000;
+private CommandScheduler commandScheduler;
+
+// ✅ Binary frames with speed/turn and CRC instead of single characters, if the robot firmware supports it.
+// Heartbeat and command are batched into one USB transfer, frames sent back by the robot are decoded
+private static final boolean BINARY_PROTOCOL = false;
+private static final int COMMAND_SPEED = 60;
+private final FrameProtocol.Encoder frameEncoder = new FrameProtocol.Encoder(32);
+private final FrameProtocol.Decoder frameDecoder = new FrameProtocol.Decoder(this::onFrame, 32);
+private final FrameProtocol.Sink frameSink = (data, length) -> serialPort.write(data, length, 100);
+private SerialInputOutputManager ioManager;
+
+// ✅ Steering from left / center / right columns in 2 rows plus floor band, every 2nd pixel, smoothed over frames
+private final DepthZoneAnalyzer zoneAnalyzer = new DepthZoneAnalyzer(3, 2, 0.25f, 2, 0.5f);
+private static final float OBSTACLE_THRESHOLD = 0.6f;
+private static final float FLOOR_MINIMUM = 0.2f;
+
+// ✅ Frame time budget from start of preprocessing to decision, lower rate or input size if exceeded
+private static final long FRAME_BUDGET_MILLIS = 150;
+
+// ✅ Skip inference while the scene hardly changes, but not longer than MAX_STALE_MILLIS
+private static final int MOTION_THRESHOLD = 6;
+private static final long MAX_STALE_MILLIS = 500;
+
+// ✅ Steady-state: after warm-up, per-frame log messages are only created when the command changes
+private static final int WARMUP_FRAMES = 10;
+private static final int ALLOCATION_CHECK_FRAMES = 300;
+private static final int LATENCY_OVERLAY_FRAMES = 30; // p50/p95/p99 on top of the log, about once per second
+private final AllocationCounters allocationCounters = new AllocationCounters();
+private int frameCount = 0;
+private char lastDecision = '-';
+
+// ✅ Flight recorder: one binary record per frame in a memory-mapped ring file, ~20 minutes at 30 fps.
+// Long click on the log exports it as CSV
+private static final int TELEMETRY_RECORDS = 36000;
+private volatile TelemetryRecorder telemetry;
+private final TelemetryRecorder.Record telemetryRecord = new TelemetryRecorder.Record();
+
+// ✅ Last log lines in a ring buffer, the view is updated at most once per display frame
+private static final int LOG_LINES = 20;
+private LogBuffer logBuffer;
+
+/**
+ * can be called from any thread
+ */
+private void appendToLog(String msg) {
+    Log.d("AppLog", msg);
+    logBuffer.append(msg);
+}
+
+// ✅ One thread for model loading and export, one for camera analysis, both shut down in onDestroy
+private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+private final ExecutorService analysisExecutor = Executors.newSingleThreadExecutor();
 
 @Override  
 protected void onCreate(Bundle savedInstanceState) {  
@@ -103,25 +135,55 @@ protected void onCreate(Bundle savedInstanceState) {
 
     previewView = findViewById(R.id.previewView);  
     debugText = findViewById(R.id.debugText);  
+    logBuffer = new LogBuffer(LOG_LINES, debugText);
+    debugText.setOnLongClickListener(v -> {
+        Log.i("Latency", LatencyStats.dump());
+        exportTelemetry();
+        return true;
+    });
 
     appendToLog("App started");  
 
-    // ✅ Init converter and allocate bitmap buffer  
-    converter = new YuvToRgbConverter(this);  
+    commandScheduler = new CommandScheduler(new CommandScheduler.Sender() {
+        @Override
+        public void send(char command) throws IOException {
+            sendCommand(command);
+        }
+
+        @Override
+        public void onSendError(char command, IOException e) {
+            if (sendFailing)
+                return;
+            sendFailing = true;
+            Log.e("SerialCommand", "Failed to send command", e);
+            appendToLog("Error sending command: " + e.getMessage());
+        }
+    }, COMMAND_COALESCE_MILLIS, COMMAND_HEARTBEAT_MILLIS);
 
     // ✅ Step 3: Load the MiDaS model  
-    try {  
-        AssetFileDescriptor fileDescriptor = getAssets().openFd("midas_small.tflite");  
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());  
-        FileChannel fileChannel = inputStream.getChannel();  
-        long startOffset = fileDescriptor.getStartOffset();  
-        long declaredLength = fileDescriptor.getDeclaredLength();  
-        MappedByteBuffer modelBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);  
-        tflite = new Interpreter(modelBuffer);  
-        appendToLog("✅ MiDaS model loaded from assets.");  
-    } catch (Exception e) {  
-        appendToLog("❌ Failed to load model: " + e.getMessage());  
-    }  
+    // in background, as selecting the fastest execution options probes the model on first launch
+    backgroundExecutor.execute(() -> {
+        try {
+            telemetry = new TelemetryRecorder(new File(getFilesDir(), "telemetry.bin"), TELEMETRY_RECORDS);
+        } catch (IOException e) {
+            appendToLog("❌ Telemetry not available: " + e.getMessage());
+        }
+        try {
+            MappedByteBuffer modelBuffer = InferenceBackend.loadModel(getAssets(), "midas_small.tflite");
+            InferenceBackend.Config config = InferenceBackend.select(this, modelBuffer, "midas_small.tflite");
+            DepthModel model = new DepthModel(InferenceBackend.create(modelBuffer, config));
+            LatencyGovernor governor = new LatencyGovernor(FRAME_BUDGET_MILLIS * 1000000L, new LatencyGovernor.Level[]{
+                    new LatencyGovernor.Level(1, model.inputWidth),
+                    new LatencyGovernor.Level(2, model.inputWidth),
+                    new LatencyGovernor.Level(2, model.inputWidth * 3 / 4),
+                    new LatencyGovernor.Level(3, model.inputWidth / 2)});
+            MotionGate motionGate = new MotionGate(16, 12, MOTION_THRESHOLD, MAX_STALE_MILLIS * 1000000L);
+            pipeline = new VisionPipeline(model, this::detectObstacles, allocationCounters, governor, motionGate);
+            appendToLog("✅ MiDaS model loaded from assets, " + config + ", " + model.inputType + " -> " + model.outputType);
+        } catch (Exception e) {
+            appendToLog("❌ Failed to load model: " + e.getMessage());
+        }
+    });
 
     if (ContextCompat.checkSelfPermission(this, Manifest.permission.CAMERA)  
             != PackageManager.PERMISSION_GRANTED) {  
@@ -138,12 +200,27 @@ protected void onCreate(Bundle savedInstanceState) {
         UsbSerialDriver driver = drivers.get(0);  
         UsbDeviceConnection connection = usbManager.openDevice(driver.getDevice());  
         if (connection != null) {  
-            serialPort = driver.getPorts().get(0);  
+            UsbSerialPort port = driver.getPorts().get(0);  
             try {  
-                serialPort.open(connection);  
-                serialPort.setParameters(9600, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);  
+                port.open(connection);  
+                port.setParameters(9600, 8, UsbSerialPort.STOPBITS_1, UsbSerialPort.PARITY_NONE);  
+                serialPort = port;
                 Toast.makeText(this, "Serial connected", Toast.LENGTH_SHORT).show();  
                 appendToLog("Serial connected at 9600 baud");  
+                if (BINARY_PROTOCOL) {
+                    ioManager = new SerialInputOutputManager(port, new SerialInputOutputManager.Listener() {
+                        @Override
+                        public void onNewData(byte[] data) {
+                            frameDecoder.feed(data, 0, data.length);
+                        }
+
+                        @Override
+                        public void onRunError(Exception e) {
+                            appendToLog("Serial read error: " + e.getMessage());
+                        }
+                    });
+                    ioManager.start();
+                }
             } catch (Exception e) {  
                 Log.e("Serial", "Error opening serial port", e);  
                 appendToLog("Error opening serial port: " + e.getMessage());  
@@ -172,13 +249,10 @@ private void startCamera() {
                     .build();  
 
             imageAnalysis.setAnalyzer(  
-                    Executors.newSingleThreadExecutor(),  
+                    analysisExecutor,
                     image -> {  
-                        if (bitmapBuffer == null) {  
-                            bitmapBuffer = Bitmap.createBitmap(  
-                                    image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);  
-                        }  
-                        detectObstacles(image);  
+                        if (pipeline != null)
+                            pipeline.submit(image);
                         image.close();  
                     });  
 
@@ -193,71 +267,177 @@ private void startCamera() {
     }, ContextCompat.getMainExecutor(this));  
 }  
 
-private void detectObstacles(ImageProxy image) {  
-    // ✅ Step 4: Convert to Bitmap and prepare for MiDaS  
-    converter.yuvToRgb(image.getImage(), bitmapBuffer);  // ✅ This converts ImageProxy to Image
-    Bitmap resized = Bitmap.createScaledBitmap(bitmapBuffer, INPUT_WIDTH, INPUT_HEIGHT, true);  
-    TensorImage inputImage = TensorImage.fromBitmap(resized);  
-
-    // ✅ Step 5: Run the model on inputImage  
-    TensorBuffer outputBuffer = TensorBuffer.createFixedSize(new int[]{1, INPUT_HEIGHT, INPUT_WIDTH, 1}, DataType.FLOAT32);  
-    tflite.run(inputImage.getBuffer(), outputBuffer.getBuffer());  
-
-    float[] depthArray = outputBuffer.getFloatArray();  
-    appendToLog("🕳 Depth prediction complete. Values: [" + depthArray[0] + ", ...]");
-
-// ✅ Step 6: Extract center depth
-// ✅ Step 6: Normalize the depth map
-float min = Float.MAX_VALUE;
-float max = Float.MIN_VALUE;
-for (float val : depthArray) {
-    if (val < min) min = val;
-    if (val > max) max = val;
-}
+/**
+ * decision stage, called on pipeline thread after inference
+ *
+ * ✅ Step 4: YUV planes were scaled, converted and normalized directly into the input tensor
+ * ✅ Step 5: and the model was run on this input
+ */
+private void detectObstacles(DepthModel depthModel, long timestamp) {
+    long startNanos = System.nanoTime();
+    boolean verbose = frameCount < WARMUP_FRAMES;
+
+    allocationCounters.begin(AllocationCounters.Stage.Postprocess);
+    if (verbose)
+        appendToLog("🕳 Depth prediction complete. Values: [" + depthModel.get(0) + ", ...]");
+
+    // ✅ Step 6: Zone statistics and range of the depth map in one pass
+    zoneAnalyzer.analyze(depthModel);
+
+    // ✅ Get center depth and normalize by the range of the map
+    float rawCenter = DepthZoneAnalyzer.center(depthModel);
+    float normalizedCenter = zoneAnalyzer.normalize(rawCenter);
+
+    if (verbose) {
+        appendToLog("📏 Raw center depth: " + rawCenter);
+        appendToLog("📏 Normalized center depth: " + normalizedCenter);
+    }
 
-// Prevent divide-by-zero
-float range = max - min;
-if (range == 0) range = 1;
-
-// ✅ Get center depth and normalize
-int centerIndex = (INPUT_HEIGHT / 2) * INPUT_WIDTH + (INPUT_WIDTH / 2);
-float rawCenter = depthArray[centerIndex];
-float normalizedCenter = (rawCenter - min) / range;
-
-appendToLog("📏 Raw center depth: " + rawCenter);
-appendToLog("📏 Normalized center depth: " + normalizedCenter);
-
-// ✅ Use normalized value for decisions
-if (normalizedCenter > 0.6f) {
-    appendToLog("🛑 Obstacle close — going backward");
-    sendCommand('b');
-} else {
-    appendToLog("✅ Path clear — moving forward");
-    sendCommand('f');
-}
+    // ✅ Use zone statistics for decisions
+    char command = zoneAnalyzer.decide(OBSTACLE_THRESHOLD, FLOOR_MINIMUM);
+    boolean changed = command != lastDecision;
+    lastDecision = command;
+    if (verbose || changed) {
+        switch (command) {
+            case 'b': appendToLog("🛑 Obstacle close or no floor — going backward"); break;
+            case 'l': appendToLog("↩ Obstacle ahead — turning left"); break;
+            case 'r': appendToLog("↪ Obstacle ahead — turning right"); break;
+            default:  appendToLog("✅ Path clear — moving forward"); break;
+        }
+    }
+    allocationCounters.end(AllocationCounters.Stage.Postprocess);
 
+    allocationCounters.begin(AllocationCounters.Stage.Command);
+    if (serialPort != null)
+        commandScheduler.submit(command);
+    allocationCounters.end(AllocationCounters.Stage.Command);
 
+    long postprocessNanos = System.nanoTime() - startNanos;
+    LatencyStats.record(LatencyStats.Stage.Postprocess, postprocessNanos);
+    recordTelemetry(timestamp, postprocessNanos, rawCenter, normalizedCenter, depthModel.inputWidth, command);
 
+    checkAllocations();
+}
 
+private void recordTelemetry(long timestamp, long postprocessNanos, float rawCenter, float normalizedCenter,
+                             int inputSize, char decision) {
+    TelemetryRecorder recorder = telemetry;
+    VisionPipeline visionPipeline = pipeline;
+    if (recorder == null || visionPipeline == null)
+        return;
+    TelemetryRecorder.Record record = telemetryRecord;
+    record.wallMillis = System.currentTimeMillis();
+    record.timestamp = timestamp;
+    record.preprocessMicros = (int) (visionPipeline.getPreprocessNanos() / 1000);
+    record.queueMicros = (int) (visionPipeline.getQueueNanos() / 1000);
+    record.inferenceMicros = (int) (visionPipeline.getInferenceNanos() / 1000);
+    record.postprocessMicros = (int) (postprocessNanos / 1000);
+    record.rawCenter = rawCenter;
+    record.normalizedCenter = normalizedCenter;
+    record.inputSize = inputSize;
+    record.decision = decision;
+    record.command = commandScheduler.getLastSent();
+    recorder.write(record);
+}
 
+private void exportTelemetry() {
+    if (telemetry == null) {
+        appendToLog("Telemetry not available");
+        return;
+    }
+    File source = new File(getFilesDir(), "telemetry.bin");
+    File target = new File(getExternalFilesDir(null), "telemetry.csv");
+    backgroundExecutor.execute(() -> {
+        try (Writer out = new FileWriter(target)) {
+            int records = TelemetryRecorder.exportCsv(source, out);
+            appendToLog("Exported " + records + " telemetry records to " + target);
+        } catch (IOException e) {
+            appendToLog("❌ Telemetry export failed: " + e.getMessage());
+        }
+    });
+}
 
-}  
+/**
+ * start counting after warm-up, and report if the steady-state loop allocates again
+ */
+private void checkAllocations() {
+    frameCount++;
+    if (frameCount == WARMUP_FRAMES) {
+        allocationCounters.start();
+    } else if (frameCount > WARMUP_FRAMES && (frameCount - WARMUP_FRAMES) % ALLOCATION_CHECK_FRAMES == 0) {
+        if (allocationCounters.getTotalCount() > 0)
+            appendToLog("⚠ Steady-state " + allocationCounters);
+        allocationCounters.reset();
+        appendToLog("Commands sent " + commandScheduler.getSent()
+                + " (heartbeats " + commandScheduler.getHeartbeats() + ")"
+                + ", suppressed " + commandScheduler.getSuppressed()
+                + ", coalesced " + commandScheduler.getCoalesced());
+    }
+    if (frameCount % LATENCY_OVERLAY_FRAMES == 0)
+        logBuffer.setHeader(LatencyStats.summary());
+}
 
-private void sendCommand(char command) {  
-    if (serialPort != null) {  
-        try {  
-            serialPort.write(new byte[]{(byte) command}, 100);  
-            lastCommand = command;  
-            appendToLog("Sent command: " + command);  
-        } catch (Exception e) {  
-            Log.e("SerialCommand", "Failed to send command", e);  
-            appendToLog("Error sending command: " + e.getMessage());  
-        }  
-    } else {  
-        Log.e("SerialCommand", "Serial port not available");  
-        appendToLog("Serial port not available");  
-    }  
-}  
+/**
+ * called on command scheduler thread
+ */
+private void sendCommand(char command) throws IOException {
+    if (serialPort == null)
+        throw new IOException("Serial port not available");
+    long startNanos = System.nanoTime();
+    if (BINARY_PROTOCOL) {
+        if (command == lastCommand)
+            frameEncoder.add(FrameProtocol.TYPE_HEARTBEAT);
+        switch (command) {
+            case 'f': frameEncoder.addMove(COMMAND_SPEED, 0); break;
+            case 'b': frameEncoder.addMove(-COMMAND_SPEED, 0); break;
+            case 'l': frameEncoder.addMove(COMMAND_SPEED / 2, -100); break;
+            case 'r': frameEncoder.addMove(COMMAND_SPEED / 2, 100); break;
+            default: frameEncoder.add(FrameProtocol.TYPE_STOP); break;
+        }
+        frameEncoder.flush(frameSink);
+    } else {
+        commandBuffer[0] = (byte) command;
+        serialPort.write(commandBuffer, 100);
+    }
+    LatencyStats.record(LatencyStats.Stage.SerialWrite, System.nanoTime() - startNanos);
+    if (sendFailing) {
+        sendFailing = false;
+        appendToLog("Sending commands again");
+    }
+    if (command != lastCommand)
+        appendToLog("Sent command: " + command);
+    lastCommand = command;
+}
+
+/**
+ * called on serial read thread
+ */
+private void onFrame(int type, byte[] payload, int length) {
+    switch (type) {
+        case FrameProtocol.TYPE_ACK:
+            break;
+        case FrameProtocol.TYPE_STATUS:
+            appendToLog("Robot status: " + TextUtil.toHexString(payload, 0, length));
+            break;
+        default:
+            appendToLog("Unknown frame type " + type + ", " + frameDecoder.getCrcErrors() + " CRC errors");
+            break;
+    }
+}
+
+@Override
+protected void onDestroy() {
+    if (pipeline != null) {
+        pipeline.stop();
+        pipeline = null;
+    }
+    commandScheduler.stop();
+    if (ioManager != null)
+        ioManager.stop();
+    analysisExecutor.shutdown();
+    backgroundExecutor.shutdown(); // a running export is finished
+    super.onDestroy();
+}
 
 @Override  
 public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {  
@@ -0,0 +1,85 @@
+package de.kai_morich.simple_usb_terminal;
+
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * cheap scene change detector on a subsampled Y plane
+ *
+ * A grid of luminance samples is compared with the samples of the last accepted frame.
+ * A frame is accepted if the mean absolute difference exceeds the threshold, or if the
+ * last accepted frame is older than the maximum staleness. Comparing against the last
+ * accepted frame instead of the previous frame also detects slow continuous change.
+ */
+final class MotionGate {
+
+    private final int columns, rows;
+    private final int threshold;
+    private final long maxStaleNanos;
+    private final byte[] reference, samples;
+    private boolean hasReference;               // accept() thread only
+    private volatile boolean resetRequested;    // set by reset() from another thread, consumed by accept()
+    private long acceptedNanos;
+    private int lastDifference;
+
+    /**
+     * @param threshold mean absolute luminance difference (0..255) that counts as change
+     */
+    MotionGate(int columns, int rows, int threshold, long maxStaleNanos) {
+        this.columns = columns;
+        this.rows = rows;
+        this.threshold = threshold;
+        this.maxStaleNanos = maxStaleNanos;
+        reference = new byte[columns * rows];
+        samples = new byte[columns * rows];
+    }
+
+    /** mean absolute difference of last checked frame */
+    int getLastDifference() {
+        return lastDifference;
+    }
+
+    /**
+     * force acceptance of the next frame, e.g. after model input change.
+     * Can be called from any thread
+     */
+    void reset() {
+        resetRequested = true;
+    }
+
+    boolean accept(ImageProxy image, long nowNanos) {
+        ImageProxy.PlaneProxy plane = image.getPlanes()[0];
+        return accept(plane.getBuffer(), plane.getRowStride(), image.getWidth(), image.getHeight(), nowNanos);
+    }
+
+    boolean accept(ByteBuffer yBuffer, int yRowStride, int width, int height, long nowNanos) {
+        if(resetRequested) {
+            resetRequested = false;
+            hasReference = false;
+        }
+        int base = yBuffer.position();
+        int sum = 0;
+        int i = 0;
+        for(int row = 0; row < rows; row++) {
+            int rowOffset = base + ((2 * row + 1) * height / (2 * rows)) * yRowStride;
+            for(int column = 0; column < columns; column++) {
+                byte sample = yBuffer.get(rowOffset + (2 * column + 1) * width / (2 * columns));
+                samples[i] = sample;
+                sum += Math.abs((sample & 0xff) - (reference[i] & 0xff));
+                i++;
+            }
+        }
+        lastDifference = sum / samples.length;
+        boolean accept = !hasReference
+                || lastDifference >= threshold
+                || nowNanos - acceptedNanos >= maxStaleNanos;
+        if(accept) {
+            System.arraycopy(samples, 0, reference, 0, samples.length);
+            hasReference = true;
+            acceptedNanos = nowNanos;
+        }
+        return accept;
+    }
+
+}
@@ -0,0 +1,51 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.nio.ByteBuffer;
+
+/**
+ * assemble NV21 (Y plane followed by interleaved V/U) from YUV_420_888 planes
+ *
+ * Row and pixel strides are honored, so unlike copying the plane buffers as a whole,
+ * this also works for padded rows and planar (pixel stride 1) chroma.
+ */
+final class Nv21 {
+
+    private Nv21() {}
+
+    static int size(int width, int height) {
+        return width * height + 2 * ((width + 1) / 2) * ((height + 1) / 2);
+    }
+
+    /**
+     * @param output at least size(width, height) bytes
+     */
+    static void assemble(ByteBuffer yBuffer, int yRowStride,
+                         ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride,
+                         int width, int height, byte[] output) {
+        int yBase = yBuffer.position();
+        if(yRowStride == width) {
+            yBuffer.get(output, 0, width * height);
+        } else {
+            for(int row = 0; row < height; row++) {
+                yBuffer.position(yBase + row * yRowStride);
+                yBuffer.get(output, row * width, width);
+            }
+        }
+        yBuffer.position(yBase);
+
+        int uvWidth = (width + 1) / 2;
+        int uvHeight = (height + 1) / 2;
+        int uBase = uBuffer.position();
+        int vBase = vBuffer.position();
+        int out = width * height;
+        for(int row = 0; row < uvHeight; row++) {
+            int offset = row * uvRowStride;
+            for(int column = 0; column < uvWidth; column++) {
+                output[out++] = vBuffer.get(vBase + offset);
+                output[out++] = uBuffer.get(uBase + offset);
+                offset += uvPixelStride;
+            }
+        }
+    }
+
+}
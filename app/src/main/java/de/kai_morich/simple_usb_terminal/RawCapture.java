@@ -0,0 +1,278 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+
+/**
+ * capture of the raw serial data into rotating files
+ *
+ * write() only copies the chunk with a small header into a preallocated ByteRing per
+ * direction, so it doesn't block the caller. If the capture thread can't keep up,
+ * chunks are dropped and counted. The capture thread collects records into blocks and
+ * writes a block with one FileChannel write when it's full or at least every second,
+ * optionally deflate compressed. A new file is started when the size or age limit of
+ * the current file is reached, only the newest files are kept.
+ *
+ *   file:    magic, version, flags (1 = deflate), reserved
+ *   block:   raw length, stored length, stored data
+ *   record:  wall clock in microseconds, data length, direction, reserved, data
+ *
+ * Records of one direction are in order, rx and tx records can be slightly out of
+ * order to each other, their timestamps give the actual order.
+ */
+final class RawCapture {
+
+    static final byte RX = 0;
+    static final byte TX = 1;
+
+    private static final int MAGIC = 0x50414352; // "RCAP"
+    private static final int VERSION = 1;
+    private static final int FLAG_DEFLATE = 1;
+    private static final int FILE_HEADER_SIZE = 8;
+    private static final int BLOCK_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final int BLOCK_SIZE = 64 * 1024;
+    private static final long FLUSH_MILLIS = 1000;
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final String PREFIX = "capture-";
+
+    interface Listener {
+        /** called on capture thread when remaining data is written after close() or capturing stopped on error, see getError() */
+        void onCaptureClosed(RawCapture capture);
+    }
+
+    /**
+     * one producer thread per direction
+     */
+    private static final class Channel {
+        final ByteRing ring;
+        final ByteRing.Slice slice = new ByteRing.Slice();
+        final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        volatile long dropped;
+
+        Channel(int capacity) {
+            this.ring = new ByteRing(capacity);
+        }
+    }
+
+    private final File dir;
+    private final long maxFileBytes;
+    private final long maxFileMillis;
+    private final int maxFiles;
+    private final boolean deflate;
+    private final Listener listener;
+    private final Channel[] channels;
+    private final long baseMicros, baseNanos;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile IOException error;
+
+    // capture thread only
+    private byte[] block = new byte[BLOCK_SIZE];
+    private int blockLength;
+    private long blockMillis;
+    private final ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Deflater deflater;
+    private byte[] deflated = new byte[0];
+    private FileChannel file;
+    private long fileBytes, fileMillis;
+
+    /**
+     * @param maxFileBytes  start a new file when this size is reached, 0 for no limit
+     * @param maxFileMillis start a new file after this time, 0 for no limit
+     * @param maxFiles      delete older files, 0 to keep all
+     * @param listener      may be null
+     */
+    RawCapture(File dir, long maxFileBytes, long maxFileMillis, int maxFiles, boolean deflate, int rxCapacity, int txCapacity,
+               Listener listener) {
+        this.dir = dir;
+        this.maxFileBytes = maxFileBytes;
+        this.maxFileMillis = maxFileMillis;
+        this.maxFiles = maxFiles;
+        this.deflate = deflate;
+        this.listener = listener;
+        this.deflater = deflate ? new Deflater(Deflater.BEST_SPEED) : null;
+        channels = new Channel[]{ new Channel(rxCapacity), new Channel(txCapacity) };
+        baseMicros = System.currentTimeMillis() * 1000;
+        baseNanos = System.nanoTime();
+        thread = new Thread(this::run, "RawCapture");
+        thread.start();
+    }
+
+    File getDir() { return dir; }
+
+    long getDropped() { return channels[RX].dropped + channels[TX].dropped; }
+
+    /**
+     * @return error that stopped capturing, null if none
+     */
+    IOException getError() { return error; }
+
+    /**
+     * to be called from one thread per direction, e.g. serial read thread for RX
+     *
+     * @return false if dropped
+     */
+    boolean write(byte direction, byte[] data, int offset, int length) {
+        Channel channel = channels[direction];
+        if(!running || channel.ring.writable() < RECORD_HEADER_SIZE + length) {
+            channel.dropped++;
+            return false;
+        }
+        ByteBuffer header = channel.header;
+        header.putLong(0, baseMicros + (System.nanoTime() - baseNanos) / 1000);
+        header.putInt(8, length);
+        header.put(12, direction);
+        channel.ring.write(header.array(), 0, RECORD_HEADER_SIZE);
+        channel.ring.write(data, offset, length);
+        return true;
+    }
+
+    /**
+     * stop after remaining data is written. Returns without waiting for the file IO,
+     * completion is reported by Listener.onCaptureClosed()
+     */
+    void close() {
+        running = false;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        try {
+            while(true) {
+                boolean stop = !running; // check before draining, so nothing written before close() is lost
+                boolean drained = false;
+                for(Channel channel : channels)
+                    drained |= drain(channel);
+                if(blockLength > 0 && System.currentTimeMillis() - blockMillis >= FLUSH_MILLIS)
+                    writeBlock();
+                if(stop)
+                    break;
+                if(!drained)
+                    LockSupport.parkNanos(POLL_NANOS);
+            }
+            writeBlock();
+        } catch (IOException e) {
+            error = e;
+            running = false;
+        } finally {
+            closeFile();
+            if(deflater != null)
+                deflater.end();
+        }
+        if(listener != null)
+            listener.onCaptureClosed(this);
+    }
+
+    /**
+     * move complete records from ring to block
+     */
+    private boolean drain(Channel channel) throws IOException {
+        ByteRing.Slice slice = channel.ring.peek(channel.slice);
+        int available = slice.length();
+        int pos = 0;
+        while(available - pos >= RECORD_HEADER_SIZE) {
+            int length = RECORD_HEADER_SIZE + getInt(slice, pos + 8);
+            if(available - pos < length)
+                break; // data of record not published yet
+            if(blockLength + length > block.length) {
+                writeBlock();
+                if(length > block.length)
+                    block = new byte[length];
+            }
+            if(blockLength == 0)
+                blockMillis = System.currentTimeMillis();
+            slice.get(pos, block, blockLength, length);
+            blockLength += length;
+            pos += length;
+        }
+        channel.ring.release(pos);
+        return pos > 0;
+    }
+
+    private static int getInt(ByteRing.Slice slice, int index) {
+        return (slice.get(index) & 0xff) | (slice.get(index + 1) & 0xff) << 8
+                | (slice.get(index + 2) & 0xff) << 16 | (slice.get(index + 3) & 0xff) << 24;
+    }
+
+    private void writeBlock() throws IOException {
+        if(blockLength == 0)
+            return;
+        long now = System.currentTimeMillis();
+        if(file == null
+                || maxFileBytes > 0 && fileBytes >= maxFileBytes
+                || maxFileMillis > 0 && now - fileMillis >= maxFileMillis)
+            openFile(now);
+        byte[] stored = block;
+        int storedLength = blockLength;
+        if(deflate) {
+            if(deflated.length < blockLength + blockLength / 100 + 64)
+                deflated = new byte[blockLength + blockLength / 100 + 64]; // incompressible data grows slightly
+            deflater.reset();
+            deflater.setInput(block, 0, blockLength);
+            deflater.finish();
+            storedLength = 0;
+            while(!deflater.finished()) {
+                if(storedLength == deflated.length)
+                    deflated = Arrays.copyOf(deflated, 2 * deflated.length);
+                storedLength += deflater.deflate(deflated, storedLength, deflated.length - storedLength);
+            }
+            stored = deflated;
+        }
+        blockHeader.clear();
+        blockHeader.putInt(blockLength).putInt(storedLength).flip();
+        ByteBuffer[] buffers = { blockHeader, ByteBuffer.wrap(stored, 0, storedLength) };
+        while(buffers[1].hasRemaining())
+            fileBytes += file.write(buffers);
+        blockLength = 0;
+        if(block.length > BLOCK_SIZE)
+            block = new byte[BLOCK_SIZE]; // don't keep large block for a single large record
+    }
+
+    private void openFile(long now) throws IOException {
+        closeFile();
+        dir.mkdirs();
+        String name = PREFIX + new SimpleDateFormat("yyyyMMdd-HHmmss-SSS", Locale.US).format(new Date(now)) + ".bin";
+        file = new RandomAccessFile(new File(dir, name), "rw").getChannel();
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).put((byte) VERSION).put((byte) (deflate ? FLAG_DEFLATE : 0)).putShort((short) 0).flip();
+        while(header.hasRemaining())
+            file.write(header);
+        fileBytes = FILE_HEADER_SIZE;
+        fileMillis = now;
+        deleteOldFiles();
+    }
+
+    private void closeFile() {
+        if(file == null)
+            return;
+        try {
+            file.close();
+        } catch (IOException ignored) {
+        }
+        file = null;
+    }
+
+    private void deleteOldFiles() {
+        if(maxFiles <= 0)
+            return;
+        File[] files = dir.listFiles((d, name) -> name.startsWith(PREFIX));
+        if(files == null || files.length <= maxFiles)
+            return;
+        Arrays.sort(files); // names sort by time
+        for(int i = 0; i < files.length - maxFiles; i++)
+            files[i].delete();
+    }
+
+}
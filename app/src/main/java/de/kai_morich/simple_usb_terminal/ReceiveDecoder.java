@@ -0,0 +1,140 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * incremental decoder from received bytes to terminal text
+ *
+ * Runs once over the bytes of each chunk and keeps its state between chunks:
+ * - multi-byte characters split across chunks are completed with the next chunk
+ * - with CR+LF newline, CR is held back until the next char shows if it's CR+LF,
+ *   so text already shown never has to be edited
+ * - other control characters are converted to https://en.wikipedia.org/wiki/Caret_notation,
+ *   consecutive ones are collected as one run for highlighting
+ *
+ * Text and caret runs accumulate until clearText(), buffers are reused.
+ */
+final class ReceiveDecoder {
+
+    private final CharsetDecoder decoder;
+    private ByteBuffer bytes = ByteBuffer.allocate(1024);
+    private final CharBuffer chars = CharBuffer.allocate(1024);
+    private final StringBuilder text = new StringBuilder();
+    private int[] caretRuns = new int[32]; // start, end pairs
+    private int caretRunCount;
+
+    private boolean crlf = true;
+    private boolean keepNewline = true;
+    private boolean pendingCr;
+
+    ReceiveDecoder(Charset charset) {
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * @param newline TextCodec.newline_crlf, TextCodec.newline_lf or "" to show all control characters
+     */
+    void setNewline(String newline) {
+        crlf = newline.equals(TextCodec.newline_crlf);
+        keepNewline = newline.length() != 0;
+        if(!crlf)
+            flushPendingCr();
+    }
+
+    CharSequence getText() { return text; }
+    int getCaretRunCount() { return caretRunCount; }
+    int getCaretRunStart(int run) { return caretRuns[2 * run]; }
+    int getCaretRunEnd(int run) { return caretRuns[2 * run + 1]; }
+
+    /**
+     * clear decoded text, but keep state of incomplete characters and newlines
+     */
+    void clearText() {
+        text.setLength(0);
+        caretRunCount = 0;
+    }
+
+    /**
+     * clear text and state, e.g. on new connection
+     */
+    void reset() {
+        clearText();
+        decoder.reset();
+        bytes.clear();
+        pendingCr = false;
+    }
+
+    void decode(byte[] data, int offset, int length) {
+        if(bytes.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes.position() + length, 2 * bytes.capacity()));
+            bytes.flip();
+            larger.put(bytes);
+            bytes = larger;
+        }
+        bytes.put(data, offset, length);
+        bytes.flip();
+        while(true) {
+            CoderResult result = decoder.decode(bytes, chars, false);
+            chars.flip();
+            append(chars);
+            chars.clear();
+            if(!result.isOverflow())
+                break;
+        }
+        bytes.compact(); // keep incomplete multi-byte character
+    }
+
+    private void append(CharBuffer chars) {
+        int length = chars.limit();
+        for(int pos = 0; pos < length; pos++) {
+            char c = chars.get(pos);
+            if(pendingCr) {
+                pendingCr = false;
+                if(c == '\n') {
+                    text.append('\n');
+                    continue;
+                }
+                caret('\r');
+            }
+            if(c == '\r' && crlf) {
+                pendingCr = true;
+            } else if(c < 32 && (c != '\n' || !keepNewline)) {
+                caret(c);
+            } else {
+                text.append(c);
+            }
+        }
+    }
+
+    private void flushPendingCr() {
+        if(pendingCr) {
+            pendingCr = false;
+            caret('\r');
+        }
+    }
+
+    private void caret(char c) {
+        int start = text.length();
+        text.append('^').append((char) (c + 64));
+        if(caretRunCount > 0 && caretRuns[2 * caretRunCount - 1] == start) {
+            caretRuns[2 * caretRunCount - 1] = text.length();
+        } else {
+            if(2 * caretRunCount == caretRuns.length) {
+                int[] larger = new int[2 * caretRuns.length];
+                System.arraycopy(caretRuns, 0, larger, 0, caretRuns.length);
+                caretRuns = larger;
+            }
+            caretRuns[2 * caretRunCount] = start;
+            caretRuns[2 * caretRunCount + 1] = text.length();
+            caretRunCount++;
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.text.SpannableStringBuilder;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.BaseAdapter;
+import android.widget.TextView;
+
+/**
+ * bounded terminal scrollback, shown in a ListView
+ *
+ * Text is split into lines kept in a ring buffer, the last line stays open until a
+ * '\n' is appended. If the line or char limit is exceeded, the oldest lines are dropped,
+ * so memory and append cost don't grow with session length. As ListView only creates
+ * and lays out rows for visible lines, spans of other lines cost nothing.
+ *
+ * Lines longer than MAX_LINE_CHARS, e.g. binary data without '\n', are wrapped into
+ * several lines, so a single line can neither grow without bound nor get too slow to
+ * lay out. The open line counts toward the char limit.
+ */
+final class Scrollback extends BaseAdapter {
+
+    static final int MAX_LINE_CHARS = 4096;
+
+    private final CharSequence[] lines; // completed lines without '\n'
+    private final int maxChars;
+    private int first, count;           // ring index of oldest line, number of completed lines
+    private int chars;                  // in completed lines
+    private SpannableStringBuilder open = new SpannableStringBuilder();
+
+    Scrollback(int maxLines, int maxChars) {
+        this.lines = new CharSequence[maxLines];
+        this.maxChars = maxChars;
+    }
+
+    void append(CharSequence text) {
+        int start = 0;
+        int length = text.length();
+        for(int pos = 0; pos < length; pos++) {
+            if(text.charAt(pos) == '\n') {
+                appendOpen(text, start, pos);
+                closeOpen();
+                start = pos + 1;
+            }
+        }
+        appendOpen(text, start, length);
+        trim();
+        notifyDataSetChanged();
+    }
+
+    void clear() {
+        for(int i = 0; i < lines.length; i++)
+            lines[i] = null;
+        first = count = chars = 0;
+        open = new SpannableStringBuilder();
+        notifyDataSetChanged();
+    }
+
+    private void appendOpen(CharSequence text, int start, int end) {
+        while(end - start > MAX_LINE_CHARS - open.length()) {
+            int split = start + MAX_LINE_CHARS - open.length();
+            if(split > start && Character.isHighSurrogate(text.charAt(split - 1)))
+                split--; // keep surrogate pair on one line
+            open.append(text, start, split);
+            closeOpen();
+            start = split;
+        }
+        if(start < end)
+            open.append(text, start, end);
+    }
+
+    private void closeOpen() {
+        CharSequence line = open;
+        open = new SpannableStringBuilder();
+        addLine(line);
+    }
+
+    private void addLine(CharSequence line) {
+        if(count == lines.length)
+            dropOldest();
+        lines[(first + count) % lines.length] = line;
+        count++;
+        chars += line.length();
+        trim();
+    }
+
+    private void trim() {
+        while(chars + open.length() > maxChars && count > 0)
+            dropOldest();
+    }
+
+    private void dropOldest() {
+        chars -= lines[first].length();
+        lines[first] = null;
+        first = (first + 1) % lines.length;
+        count--;
+    }
+
+    /*
+     * Adapter
+     */
+    @Override
+    public int getCount() {
+        return open.length() > 0 ? count + 1 : count;
+    }
+
+    @Override
+    public CharSequence getItem(int position) {
+        return position < count ? lines[(first + position) % lines.length] : open;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return position;
+    }
+
+    @Override
+    public View getView(int position, View view, ViewGroup parent) {
+        if(view == null)
+            view = LayoutInflater.from(parent.getContext()).inflate(R.layout.scrollback_line, parent, false);
+        ((TextView) view).setText(getItem(position));
+        return view;
+    }
+
+}
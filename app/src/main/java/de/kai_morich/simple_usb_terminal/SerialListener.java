@@ -1,11 +1,9 @@
 package de.kai_morich.simple_usb_terminal;
 
-import java.util.ArrayDeque;
-
 interface SerialListener {
     void onSerialConnect      ();
     void onSerialConnectError (Exception e);
     void onSerialRead         (byte[] data);                // socket -> service
-    void onSerialRead         (ArrayDeque<byte[]> datas);   // service -> UI thread
+    void onSerialRead         (ByteRing.Slice slice);       // service -> UI thread, valid during call
     void onSerialIoError      (Exception e);
 }
@@ -10,15 +10,20 @@ import android.content.Intent;
 import android.os.Binder;
 import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.SystemClock;
+import android.widget.Toast;
 
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import androidx.core.app.NotificationCompat;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * create notification and queue serial data while activity is not in the foreground
@@ -34,25 +39,52 @@ public class SerialService extends Service implements SerialListener {
 
     private static class QueueItem {
         QueueType type;
-        ArrayDeque<byte[]> datas;
+        byte[] data;    // Read in queue1
+        int offset;     // of data already replayed
+        long length;    // Read in queue2, data is in backgroundBuffer
         Exception e;
 
-        QueueItem(QueueType type) { this.type=type; if(type==QueueType.Read) init(); }
+        QueueItem(QueueType type) { this.type=type; }
         QueueItem(QueueType type, Exception e) { this.type=type; this.e=e; }
-        QueueItem(QueueType type, ArrayDeque<byte[]> datas) { this.type=type; this.datas=datas; }
-
-        void init() { datas = new ArrayDeque<>(); }
-        void add(byte[] data) { datas.add(data); }
+        QueueItem(QueueType type, byte[] data) { this.type=type; this.data=data; }
     }
 
+    private static final int READ_RING_SIZE = 1024 * 1024;
+    private static final long READ_FULL_WAIT_MILLIS = 100;             // then received data is dropped
+    private static final int BACKGROUND_MEMORY_BYTES = 1024 * 1024; // more data received in background is spilled to a file
+    private static final int REPLAY_CHUNK_SIZE = 16 * 1024;
+    private static final long REPLAY_STEP_NANOS = 8_000_000;          // replay time per main loop message, below one frame
+    private static final long CAPTURE_MAX_FILE_BYTES = 16 * 1024 * 1024;
+    private static final long CAPTURE_MAX_FILE_MILLIS = 60 * 60 * 1000;
+    private static final int CAPTURE_MAX_FILES = 20;
+    private static final boolean CAPTURE_DEFLATE = true;
+
     private final Handler mainLooper;
     private final IBinder binder;
     private final ArrayDeque<QueueItem> queue1, queue2;
-    private final QueueItem lastRead;
+    private final ByteRing readRing;                // serial read thread -> main thread
+    private final ByteRing.Slice readSlice = new ByteRing.Slice(); // main thread only
+    private final AtomicBoolean readPending = new AtomicBoolean();
+    private volatile long readNanos;                // arrival of oldest data in readRing
+    private volatile long readDropped;              // bytes, written by serial read thread only
+    private boolean readOverflow;                   // serial read thread only
+    private final Runnable readDrain = this::drainRead;
+    private SpillBuffer backgroundBuffer;           // data of queue2 Read items
+    private final byte[] replayBuffer = new byte[REPLAY_CHUNK_SIZE];
+    private final Runnable replayStep = this::replayStep;
+    private final Runnable replayRead = this::replayRead;
+    private final QueueItem replayReadItem = new QueueItem(QueueType.Read);
+    private HandlerThread replayThread;             // reads backgroundBuffer, so file IO is not on main thread
+    private Handler replayHandler;
+    private volatile boolean replayReading;         // replayRead() running, then result is in replayLength or replayError
+    private int replayLength = -1;
+    private IOException replayError;
 
     private SerialSocket socket;
-    private SerialListener listener;
-    private boolean connected;
+    private volatile SerialListener listener;
+    private volatile boolean replaying;             // queued items are replayed, new items still have to be queued
+    private volatile RawCapture capture;
+    private volatile boolean connected;             // also read on serial read thread
 
     /**
      * Lifecylce
@@ -62,13 +94,28 @@ public class SerialService extends Service implements SerialListener {
         binder = new SerialBinder();
         queue1 = new ArrayDeque<>();
         queue2 = new ArrayDeque<>();
-        lastRead = new QueueItem(QueueType.Read);
+        readRing = new ByteRing(READ_RING_SIZE);
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        backgroundBuffer = new SpillBuffer(new File(getCacheDir(), "background.bin"), BACKGROUND_MEMORY_BYTES);
+        replayThread = new HandlerThread("replay");
+        replayThread.start();
+        replayHandler = new Handler(replayThread.getLooper());
     }
 
     @Override
     public void onDestroy() {
         cancelNotification();
         disconnect();
+        stopCapture();
+        mainLooper.removeCallbacks(replayStep);
+        replayThread.quitSafely();
+        synchronized (this) {
+            backgroundBuffer.clear();
+        }
         super.onDestroy();
     }
 
@@ -82,6 +129,7 @@ public class SerialService extends Service implements SerialListener {
      * Api
      */
     public void connect(SerialSocket socket) throws IOException {
+        socket.setCapture(capture);
         socket.connect(this);
         this.socket = socket;
         connected = true;
@@ -96,10 +144,66 @@ public class SerialService extends Service implements SerialListener {
         }
     }
 
-    public void write(byte[] data) throws IOException {
+    /**
+     * bytes dropped because the UI didn't keep up with received data
+     */
+    public long getReadDropped() {
+        return readDropped;
+    }
+
+    /**
+     * queue data for writing, callback is called on writer thread
+     */
+    public void write(byte[] data, SerialWriter.Callback callback) throws IOException {
         if(!connected)
             throw new IOException("not connected");
-        socket.write(data);
+        socket.write(data, callback);
+    }
+
+    /**
+     * capture raw data of all connections to files, independent of attached UI.
+     * RX is captured on serial read thread, TX on writer thread when written to the port
+     */
+    public RawCapture startCapture() {
+        if(capture == null) {
+            File dir = getExternalFilesDir(null);
+            if(dir == null)
+                dir = getFilesDir();
+            capture = new RawCapture(new File(dir, "capture"), CAPTURE_MAX_FILE_BYTES, CAPTURE_MAX_FILE_MILLIS,
+                    CAPTURE_MAX_FILES, CAPTURE_DEFLATE, READ_RING_SIZE, 64 * 1024, this::onCaptureClosed);
+            if(socket != null)
+                socket.setCapture(capture);
+        }
+        return capture;
+    }
+
+    /**
+     * remaining data is written on capture thread, the result is shown by onCaptureClosed()
+     */
+    public void stopCapture() {
+        RawCapture capture = this.capture;
+        this.capture = null;
+        if(socket != null)
+            socket.setCapture(null);
+        if(capture != null)
+            capture.close();
+    }
+
+    public boolean isCapturing() {
+        return capture != null;
+    }
+
+    /**
+     * called on capture thread after stopCapture() or on error, so isCapturing() doesn't report a failed capture
+     */
+    private void onCaptureClosed(RawCapture capture) {
+        mainLooper.post(() -> {
+            if(this.capture == capture)
+                stopCapture(); // failed while capturing
+            IOException error = capture.getError();
+            Toast.makeText(this, error != null ? "capture failed: " + error.getMessage()
+                    : "capture stopped, " + capture.getDropped() + " chunks dropped", Toast.LENGTH_LONG).show();
+        });
     }
 
     public void attach(SerialListener listener) {
@@ -107,29 +211,113 @@ public class SerialService extends Service implements SerialListener {
             throw new IllegalArgumentException("not in main thread");
         initNotification();
         cancelNotification();
-        // use synchronized() to prevent new items in queue2
+        // use synchronized() to prevent new items in queue2 while checking for replay
         // new items will not be added to queue1 because mainLooper.post and attach() run in main thread
+        // set replaying first, as the serial read thread checks listener without lock
         synchronized (this) {
+            replaying = !queue1.isEmpty() || !queue2.isEmpty() || replayReading || replayLength >= 0 || replayError != null;
             this.listener = listener;
         }
-        for(QueueItem item : queue1) {
+        if(replaying) {
+            mainLooper.removeCallbacks(replayStep);
+            replayStep();
+        }
+    }
+
+    /**
+     * replay queued items in steps of REPLAY_STEP_NANOS, so the main thread is not blocked by a
+     * large backlog. Items occurring meanwhile are still queued, so order is kept.
+     */
+    private void replayStep() {
+        SerialListener listener = this.listener;
+        if(listener == null)
+            return; // continued on next attach()
+        long deadline = System.nanoTime() + REPLAY_STEP_NANOS;
+        do {
+            QueueItem item = nextReplayItem();
+            if(item == null)
+                return; // finished, or continued by replayRead()
             switch(item.type) {
                 case Connect:       listener.onSerialConnect      (); break;
                 case ConnectError:  listener.onSerialConnectError (item.e); break;
-                case Read:          listener.onSerialRead         (item.datas); break;
+                case Read:          listener.onSerialRead         (readSlice); break;
                 case IoError:       listener.onSerialIoError      (item.e); break;
             }
+        } while(System.nanoTime() < deadline && this.listener == listener);
+        mainLooper.post(replayStep);
+    }
+
+    /**
+     * Read items are returned in chunks of REPLAY_CHUNK_SIZE with data in readSlice.
+     * Data of queue2 Read items is read by replayRead() on replayThread, so the main thread
+     * does no file IO and holds the lock only to look at queue2.
+     *
+     * @return null if replay is finished or waiting for replayRead()
+     */
+    private QueueItem nextReplayItem() {
+        QueueItem item = queue1.peek();
+        if(item != null) {
+            if(item.type == QueueType.Read) {
+                int length = Math.min(item.data.length - item.offset, REPLAY_CHUNK_SIZE);
+                readSlice.set(item.data, item.offset, length);
+                item.offset += length;
+                if(item.offset < item.data.length)
+                    return item;
+            }
+            return queue1.poll();
         }
-        for(QueueItem item : queue2) {
-            switch(item.type) {
-                case Connect:       listener.onSerialConnect      (); break;
-                case ConnectError:  listener.onSerialConnectError (item.e); break;
-                case Read:          listener.onSerialRead         (item.datas); break;
-                case IoError:       listener.onSerialIoError      (item.e); break;
+        if(replayReading)
+            return null;
+        if(replayLength >= 0) {
+            readSlice.set(replayBuffer, 0, replayLength);
+            replayLength = -1;
+            return replayReadItem;
+        }
+        if(replayError != null) {
+            item = new QueueItem(QueueType.IoError, replayError);
+            replayError = null;
+            return item;
+        }
+        synchronized (this) {
+            item = queue2.peek();
+            if(item == null) {
+                replaying = false;
+                return null;
+            }
+            if(item.type == QueueType.Read) {
+                replayReading = true;
+                replayHandler.post(replayRead);
+                return null;
+            }
+            return queue2.poll();
+        }
+    }
+
+    /**
+     * called on replayThread, reads the next chunk of the first queue2 item, which is a Read item
+     */
+    private void replayRead() {
+        synchronized (this) {
+            QueueItem item = queue2.peek();
+            if(item == null || item.type != QueueType.Read) { // cleared meanwhile, nextReplayItem() continues with queue2
+                replayReading = false;
+                mainLooper.post(replayStep);
+                return;
+            }
+            try {
+                int length = backgroundBuffer.read(replayBuffer, 0, (int) Math.min(item.length, replayBuffer.length));
+                item.length -= length;
+                if(item.length <= 0 || length == 0)
+                    queue2.poll();
+                replayLength = length;
+            } catch (IOException e) {
+                queue2.clear();
+                backgroundBuffer.clear();
+                replayError = e;
             }
         }
-        queue1.clear();
-        queue2.clear();
+        replayReading = false;
+        mainLooper.post(replayStep);
     }
 
     public void detach() {
@@ -192,12 +380,12 @@ public class SerialService extends Service implements SerialListener {
     public void onSerialConnect() {
         if(connected) {
             synchronized (this) {
-                if (listener != null) {
+                if (listener != null && !replaying) {
                     mainLooper.post(() -> {
-                        if (listener != null) {
+                        if (listener != null && !replaying) {
                             listener.onSerialConnect();
                         } else {
-                            queue1.add(new QueueItem(QueueType.Connect));
+                            queueLate(new QueueItem(QueueType.Connect));
                         }
                     });
                 } else {
@@ -210,12 +398,12 @@ public class SerialService extends Service implements SerialListener {
     public void onSerialConnectError(Exception e) {
         if(connected) {
             synchronized (this) {
-                if (listener != null) {
+                if (listener != null && !replaying) {
                     mainLooper.post(() -> {
-                        if (listener != null) {
+                        if (listener != null && !replaying) {
                             listener.onSerialConnectError(e);
                         } else {
-                            queue1.add(new QueueItem(QueueType.ConnectError, e));
+                            queueLate(new QueueItem(QueueType.ConnectError, e));
                             disconnect();
                         }
                     });
@@ -227,57 +415,118 @@ public class SerialService extends Service implements SerialListener {
         }
     }
 
-    public void onSerialRead(ArrayDeque<byte[]> datas) { throw new UnsupportedOperationException(); }
+    public void onSerialRead(ByteRing.Slice slice) { throw new UnsupportedOperationException(); }
 
     /**
      * reduce number of UI updates by merging data chunks.
      * Data can arrive at hundred chunks per second, but the UI can only
      * perform a dozen updates if receiveText already contains much text.
      *
-     * On new data inform UI thread once (1).
-     * While not consumed (2), add more data (3).
+     * Data is copied into readRing without locking and the UI thread is
+     * informed once (1), it consumes everything available at that time (2).
+     * If the UI doesn't keep up and the ring is full, the read thread waits (3)
+     * up to READ_FULL_WAIT_MILLIS. Waiting longer would only move the loss to the
+     * FIFO of the USB device, so then the rest is dropped and counted, and later
+     * data is dropped without waiting until it fits into the ring again.
      */
     public void onSerialRead(byte[] data) {
-        if(connected) {
-            synchronized (this) {
-                if (listener != null) {
-                    boolean first;
-                    synchronized (lastRead) {
-                        first = lastRead.datas.isEmpty(); // (1)
-                        lastRead.add(data); // (3)
-                    }
-                    if(first) {
-                        mainLooper.post(() -> {
-                            ArrayDeque<byte[]> datas;
-                            synchronized (lastRead) {
-                                datas = lastRead.datas;
-                                lastRead.init(); // (2)
-                            }
-                            if (listener != null) {
-                                listener.onSerialRead(datas);
-                            } else {
-                                queue1.add(new QueueItem(QueueType.Read, datas));
-                            }
-                        });
-                    }
-                } else {
-                    if(queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
-                        queue2.add(new QueueItem(QueueType.Read));
-                    queue2.getLast().add(data);
+        if(!connected)
+            return;
+        RawCapture capture = this.capture;
+        if(capture != null)
+            capture.write(RawCapture.RX, data, 0, data.length);
+        if(listener == null || replaying) {
+            synchronized (this) { // see attach()
+                if (listener == null || replaying) {
+                    queueRead(data);
+                    return;
                 }
             }
         }
+        int offset = 0;
+        long deadline = 0;
+        while(true) {
+            offset += readRing.write(data, offset, data.length - offset);
+            if(readPending.compareAndSet(false, true)) { // (1)
+                readNanos = System.nanoTime();
+                mainLooper.post(readDrain);
+            }
+            if(offset == data.length) {
+                readOverflow = false;
+                break;
+            }
+            if(!connected)
+                break;
+            long now = SystemClock.uptimeMillis();
+            if(deadline == 0)
+                deadline = now + READ_FULL_WAIT_MILLIS;
+            if(readOverflow || now >= deadline) {
+                readOverflow = true;
+                readDropped += data.length - offset;
+                break;
+            }
+            SystemClock.sleep(1); // (3)
+        }
+    }
+
+    private void drainRead() {
+        long nanos = readNanos;
+        readPending.set(false); // (2)
+        ByteRing.Slice slice = readRing.peek(readSlice);
+        if(slice.length() == 0)
+            return;
+        if (listener != null && !replaying) {
+            listener.onSerialRead(slice);
+            LatencyStats.record(LatencyStats.Stage.SerialRead, System.nanoTime() - nanos);
+        } else if (replaying) {
+            synchronized (this) {
+                queueRead(slice.toArray());
+            }
+        } else {
+            queue1.add(new QueueItem(QueueType.Read, slice.toArray()));
+        }
+        readRing.release(slice.length());
+    }
+
+    /**
+     * main thread, for items posted before detach() that could not be delivered.
+     * While replaying, they are queued behind queue2, as queue1 might already be replayed
+     */
+    private void queueLate(QueueItem item) {
+        if(replaying) {
+            synchronized (this) {
+                queue2.add(item);
+            }
+        } else {
+            queue1.add(item);
+        }
+    }
+
+    /**
+     * memory for data received in background is limited, more is spilled to a file
+     */
+    private void queueRead(byte[] data) {
+        try {
+            backgroundBuffer.write(data);
+        } catch (IOException e) {
+            queue2.add(new QueueItem(QueueType.IoError, e));
+            disconnect();
+            return;
+        }
+        if(queue2.isEmpty() || queue2.getLast().type != QueueType.Read)
+            queue2.add(new QueueItem(QueueType.Read));
+        queue2.getLast().length += data.length;
     }
 
     public void onSerialIoError(Exception e) {
         if(connected) {
             synchronized (this) {
-                if (listener != null) {
+                if (listener != null && !replaying) {
                     mainLooper.post(() -> {
-                        if (listener != null) {
+                        if (listener != null && !replaying) {
                             listener.onSerialIoError(e);
                         } else {
-                            queue1.add(new QueueItem(QueueType.IoError, e));
+                            queueLate(new QueueItem(QueueType.IoError, e));
                             disconnect();
                         }
                     });
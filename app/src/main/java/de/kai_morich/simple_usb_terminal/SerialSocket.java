@@ -19,6 +19,7 @@ import java.security.InvalidParameterException;
 public class SerialSocket implements SerialInputOutputManager.Listener {
 
     private static final int WRITE_WAIT_MILLIS = 200; // 0 blocked infinitely on unprogrammed arduino
+    private static final int WRITE_QUEUE_SIZE = 64;
     private final static String TAG = SerialSocket.class.getSimpleName();
 
     private final BroadcastReceiver disconnectBroadcastReceiver;
@@ -28,13 +29,21 @@ public class SerialSocket implements SerialInputOutputManager.Listener {
     private UsbDeviceConnection connection;
     private UsbSerialPort serialPort;
     private SerialInputOutputManager ioManager;
+    private SerialWriter writer;
+    private final SerialWriter.Policy writePolicy;
+    private RawCapture capture;
 
     SerialSocket(Context context, UsbDeviceConnection connection, UsbSerialPort serialPort) {
+        this(context, connection, serialPort, SerialWriter.Policy.Fail);
+    }
+
+    SerialSocket(Context context, UsbDeviceConnection connection, UsbSerialPort serialPort, SerialWriter.Policy writePolicy) {
         if(context instanceof Activity)
             throw new InvalidParameterException("expected non UI context");
         this.context = context;
         this.connection = connection;
         this.serialPort = serialPort;
+        this.writePolicy = writePolicy;
         disconnectBroadcastReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
@@ -58,6 +67,17 @@ public class SerialSocket implements SerialInputOutputManager.Listener {
 	}
         ioManager = new SerialInputOutputManager(serialPort, this);
         ioManager.start();
+        writer = new SerialWriter(serialPort, WRITE_QUEUE_SIZE, writePolicy, WRITE_WAIT_MILLIS);
+        writer.setCapture(capture);
+    }
+
+    /**
+     * capture written data on writer thread, null to stop
+     */
+    void setCapture(RawCapture capture) {
+        this.capture = capture;
+        if(writer != null)
+            writer.setCapture(capture);
     }
 
     void disconnect() {
@@ -67,6 +87,10 @@ public class SerialSocket implements SerialInputOutputManager.Listener {
             ioManager.stop();
             ioManager = null;
         }
+        if (writer != null) {
+            writer.stop();
+            writer = null;
+        }
         if (serialPort != null) {
             try {
                 serialPort.setDTR(false);
@@ -89,10 +113,14 @@ public class SerialSocket implements SerialInputOutputManager.Listener {
         }
     }
 
-    void write(byte[] data) throws IOException {
-        if(serialPort == null)
+    /**
+     * queue data for writing, returns without waiting for USB.
+     * Results are reported to callback on writer thread
+     */
+    void write(byte[] data, SerialWriter.Callback callback) throws IOException {
+        if(writer == null)
             throw new IOException("not connected");
-        serialPort.write(data, WRITE_WAIT_MILLIS);
+        writer.write(data, callback);
     }
 
     @Override
@@ -0,0 +1,159 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.util.Log;
+
+import com.hoho.android.usbserial.driver.SerialTimeoutException;
+import com.hoho.android.usbserial.driver.UsbSerialPort;
+
+import java.io.IOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * write to serial port on an own thread, fed by a bounded queue
+ *
+ * Callers never wait for USB. If the queue is full, the backpressure policy decides:
+ * Block waits for a free queue entry, DropOldest discards the oldest queued data and
+ * Fail throws QueueFullException. Discarded data is reported by onWriteDropped() on the
+ * writer thread before the next write, it is not a write error.
+ *
+ * If a write times out, e.g. while suspended by flow control, the remaining data is
+ * retried before any later data, so the order is kept.
+ */
+final class SerialWriter {
+
+    private final static String TAG = SerialWriter.class.getSimpleName();
+
+    enum Policy { Block, DropOldest, Fail }
+
+    static class QueueFullException extends IOException {
+        QueueFullException(String message) { super(message); }
+    }
+
+    /**
+     * all methods are called on writer thread
+     */
+    interface Callback {
+        default void onWriteStalled(byte[] data, int remaining) {}
+        default void onWriteComplete(byte[] data) {}
+        /** data was discarded unwritten by DropOldest policy */
+        default void onWriteDropped(byte[] data) {}
+        void onWriteError(byte[] data, IOException e);
+    }
+
+    private static class Entry {
+        final byte[] data;
+        final Callback callback;
+
+        Entry(byte[] data, Callback callback) { this.data = data; this.callback = callback; }
+    }
+
+    private final UsbSerialPort serialPort;
+    private final Policy policy;
+    private final int timeoutMillis;
+    private final ArrayBlockingQueue<Entry> queue;
+    private final ConcurrentLinkedQueue<Entry> dropped = new ConcurrentLinkedQueue<>(); // to notify on writer thread
+    private final Thread thread;
+    private volatile boolean running = true;
+    private volatile RawCapture capture;
+
+    SerialWriter(UsbSerialPort serialPort, int capacity, Policy policy, int timeoutMillis) {
+        this.serialPort = serialPort;
+        this.policy = policy;
+        this.timeoutMillis = timeoutMillis;
+        queue = new ArrayBlockingQueue<>(capacity);
+        thread = new Thread(this::run, "serial writer");
+        thread.start();
+    }
+
+    /**
+     * @param callback may be null
+     */
+    void write(byte[] data, Callback callback) throws IOException {
+        if(!running)
+            throw new IOException("not connected");
+        Entry entry = new Entry(data, callback);
+        switch (policy) {
+            case Block:
+                try {
+                    queue.put(entry);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("write interrupted");
+                }
+                break;
+            case DropOldest:
+                while(!queue.offer(entry)) {
+                    Entry oldest = queue.poll();
+                    if(oldest != null && oldest.callback != null)
+                        dropped.add(oldest);
+                }
+                break;
+            case Fail:
+                if(!queue.offer(entry))
+                    throw new QueueFullException("write queue full");
+                break;
+        }
+    }
+
+    /**
+     * capture data as actually written to the serial port, null to stop.
+     * The writer thread is the only TX producer of the capture
+     */
+    void setCapture(RawCapture capture) {
+        this.capture = capture;
+    }
+
+    void stop() {
+        running = false;
+        capture = null;
+        thread.interrupt();
+        queue.clear();
+        dropped.clear();
+    }
+
+    private void run() {
+        try {
+            while(running) {
+                Entry entry = queue.take();
+                for(Entry oldest; (oldest = dropped.poll()) != null; ) // report drops before writing newer data
+                    oldest.callback.onWriteDropped(oldest.data);
+                byte[] data = entry.data;
+                while(true) {
+                    try {
+                        serialPort.write(data, timeoutMillis);
+                        capture(data, data.length);
+                        if(entry.callback != null)
+                            entry.callback.onWriteComplete(entry.data);
+                        break;
+                    } catch (SerialTimeoutException e) {
+                        if(!running)
+                            return;
+                        if(e.bytesTransferred > 0) {
+                            capture(data, e.bytesTransferred);
+                            byte[] remaining = new byte[data.length - e.bytesTransferred];
+                            System.arraycopy(data, e.bytesTransferred, remaining, 0, remaining.length);
+                            data = remaining;
+                        }
+                        if(entry.callback != null)
+                            entry.callback.onWriteStalled(entry.data, data.length);
+                    } catch (IOException e) {
+                        if(running && entry.callback != null)
+                            entry.callback.onWriteError(entry.data, e);
+                        break;
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } catch (Exception e) {
+            Log.e(TAG, "writer failed", e);
+        }
+    }
+
+    private void capture(byte[] data, int length) {
+        RawCapture capture = this.capture;
+        if(capture != null)
+            capture.write(RawCapture.TX, data, 0, length);
+    }
+
+}
@@ -0,0 +1,128 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+
+/**
+ * FIFO byte buffer with bounded memory
+ *
+ * Data is kept in memory up to the budget, more data is appended to a file. Once
+ * spilled, new data also goes to the file until everything is read, then the file is
+ * truncated and memory is used again, so data is always read in write order.
+ * File writes are collected in a small buffer to avoid a system call per chunk.
+ *
+ * Not thread safe, callers synchronize.
+ */
+final class SpillBuffer {
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final int memoryBudget;
+    private final ArrayDeque<byte[]> chunks = new ArrayDeque<>(); // stored without copy
+    private int memoryBytes;    // in chunks
+    private int chunkOffset;    // read position in first chunk
+    private FileChannel channel; // null if not spilled
+    private final ByteBuffer writeBuffer = ByteBuffer.allocate(WRITE_BUFFER_SIZE);
+    private long fileLength, fileReadPos;
+
+    SpillBuffer(File file, int memoryBudget) {
+        this.file = file;
+        this.memoryBudget = memoryBudget;
+    }
+
+    long size() {
+        return memoryBytes - chunkOffset + fileLength + writeBuffer.position() - fileReadPos;
+    }
+
+    /**
+     * @param data not modified by caller afterwards
+     */
+    void write(byte[] data) throws IOException {
+        if(channel == null && memoryBytes + data.length <= memoryBudget) {
+            chunks.add(data);
+            memoryBytes += data.length;
+            return;
+        }
+        if(channel == null) {
+            channel = new RandomAccessFile(file, "rw").getChannel();
+            channel.truncate(0);
+            fileLength = fileReadPos = 0;
+        }
+        if(data.length > writeBuffer.remaining())
+            flush();
+        if(data.length > writeBuffer.remaining())
+            writeFully(ByteBuffer.wrap(data));
+        else
+            writeBuffer.put(data);
+    }
+
+    /**
+     * @return number of bytes read, 0 if empty
+     */
+    int read(byte[] buf, int offset, int length) throws IOException {
+        int count = 0;
+        while(count < length && !chunks.isEmpty()) {
+            byte[] chunk = chunks.peek();
+            int n = Math.min(length - count, chunk.length - chunkOffset);
+            System.arraycopy(chunk, chunkOffset, buf, offset + count, n);
+            count += n;
+            chunkOffset += n;
+            if(chunkOffset == chunk.length) {
+                chunks.poll();
+                memoryBytes -= chunk.length;
+                chunkOffset = 0;
+            }
+        }
+        if(count < length && channel != null) {
+            flush();
+            ByteBuffer bb = ByteBuffer.wrap(buf, offset + count, (int) Math.min(length - count, fileLength - fileReadPos));
+            while(bb.hasRemaining()) {
+                int n = channel.read(bb, fileReadPos);
+                if(n < 0)
+                    throw new IOException("background buffer truncated");
+                fileReadPos += n;
+                count += n;
+            }
+            if(fileReadPos == fileLength)
+                closeFile();
+        }
+        return count;
+    }
+
+    void clear() {
+        chunks.clear();
+        memoryBytes = chunkOffset = 0;
+        try {
+            closeFile();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private void flush() throws IOException {
+        writeBuffer.flip();
+        writeFully(writeBuffer);
+        writeBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer bb) throws IOException {
+        while(bb.hasRemaining())
+            fileLength += channel.write(bb, fileLength);
+    }
+
+    private void closeFile() throws IOException {
+        writeBuffer.clear();
+        fileLength = fileReadPos = 0;
+        if(channel != null) {
+            FileChannel c = channel;
+            channel = null;
+            c.close();
+            file.delete();
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * flight recorder for the vision loop
+ *
+ * Each frame is stored as fixed size binary record in a memory-mapped ring file, so
+ * recording is a few absolute puts without allocation or system call, and the data
+ * survives a crash of the app. The file keeps the last `capacity` records across
+ * restarts. exportCsv() converts it into a readable form.
+ *
+ *   header:  magic, version, record size, capacity, next sequence number
+ *   record:  sequence, wall clock, camera timestamp, stage durations, center depth,
+ *            input size, decision, command sent
+ */
+final class TelemetryRecorder {
+
+    private static final int MAGIC = 0x544c4d31; // "TLM1"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 32;
+    private static final int RECORD_SIZE = 56;
+    private static final int HEADER_SEQUENCE = 16;
+
+    /**
+     * reused for writing and reading, durations in microseconds
+     */
+    static final class Record {
+        long sequence;
+        long wallMillis;
+        long timestamp;
+        int preprocessMicros;
+        int queueMicros;
+        int inferenceMicros;
+        int postprocessMicros;
+        float rawCenter;
+        float normalizedCenter;
+        int inputSize;
+        char decision;
+        char command;
+
+        static final String CSV_HEADER = "sequence,wall_ms,timestamp_ns,preprocess_us,queue_us,inference_us,postprocess_us,raw_center,normalized_center,input_size,decision,command";
+
+        String toCsv() {
+            return String.format(Locale.US, "%d,%d,%d,%d,%d,%d,%d,%f,%f,%d,%s,%s",
+                    sequence, wallMillis, timestamp,
+                    preprocessMicros, queueMicros, inferenceMicros, postprocessMicros,
+                    rawCenter, normalizedCenter, inputSize,
+                    decision == 0 ? "" : String.valueOf(decision),
+                    command == 0 ? "" : String.valueOf(command));
+        }
+    }
+
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long sequence;
+
+    /**
+     * open existing ring file and continue after its last record, or create a new one
+     */
+    TelemetryRecorder(File file, int capacity) throws IOException {
+        this.capacity = capacity;
+        boolean sameSize;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            long size = HEADER_SIZE + (long) RECORD_SIZE * capacity;
+            sameSize = raf.length() == size;
+            raf.setLength(size);
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size); // mapping stays valid after close
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(sameSize && buffer.getInt(0) == MAGIC && buffer.getInt(4) == VERSION
+                && buffer.getInt(8) == RECORD_SIZE && buffer.getInt(12) == capacity
+                && buffer.getLong(HEADER_SEQUENCE) >= 0) {
+            sequence = buffer.getLong(HEADER_SEQUENCE);
+        } else {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(8, RECORD_SIZE);
+            buffer.putInt(12, capacity);
+            buffer.putLong(HEADER_SEQUENCE, 0);
+            sequence = 0;
+        }
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * to be called from a single thread. record.sequence is assigned
+     */
+    void write(Record record) {
+        record.sequence = sequence;
+        int p = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+        buffer.putLong(p, record.sequence);
+        buffer.putLong(p + 8, record.wallMillis);
+        buffer.putLong(p + 16, record.timestamp);
+        buffer.putInt(p + 24, record.preprocessMicros);
+        buffer.putInt(p + 28, record.queueMicros);
+        buffer.putInt(p + 32, record.inferenceMicros);
+        buffer.putInt(p + 36, record.postprocessMicros);
+        buffer.putFloat(p + 40, record.rawCenter);
+        buffer.putFloat(p + 44, record.normalizedCenter);
+        buffer.putShort(p + 48, (short) record.inputSize);
+        buffer.putChar(p + 50, record.decision);
+        buffer.putChar(p + 52, record.command);
+        sequence++;
+        buffer.putLong(HEADER_SEQUENCE, sequence); // after the record, so a partial record is never exported
+    }
+
+    /**
+     * write records of a ring file, oldest first, as CSV
+     *
+     * @return number of records
+     */
+    static int exportCsv(File file, Writer out) throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+            throw new IOException("not a telemetry file");
+        if(buffer.getInt(4) != VERSION || buffer.getInt(8) != RECORD_SIZE)
+            throw new IOException("unsupported telemetry version " + buffer.getInt(4));
+        int capacity = buffer.getInt(12);
+        long end = buffer.getLong(HEADER_SEQUENCE);
+        long begin = Math.max(0, end - capacity);
+        Record record = new Record();
+        out.write(Record.CSV_HEADER);
+        out.write('\n');
+        for(long sequence = begin; sequence < end; sequence++) {
+            int p = HEADER_SIZE + (int) (sequence % capacity) * RECORD_SIZE;
+            record.sequence = buffer.getLong(p);
+            record.wallMillis = buffer.getLong(p + 8);
+            record.timestamp = buffer.getLong(p + 16);
+            record.preprocessMicros = buffer.getInt(p + 24);
+            record.queueMicros = buffer.getInt(p + 28);
+            record.inferenceMicros = buffer.getInt(p + 32);
+            record.postprocessMicros = buffer.getInt(p + 36);
+            record.rawCenter = buffer.getFloat(p + 40);
+            record.normalizedCenter = buffer.getFloat(p + 44);
+            record.inputSize = buffer.getShort(p + 48);
+            record.decision = buffer.getChar(p + 50);
+            record.command = buffer.getChar(p + 52);
+            out.write(record.toCsv());
+            out.write('\n');
+        }
+        return (int) (end - begin);
+    }
+
+}
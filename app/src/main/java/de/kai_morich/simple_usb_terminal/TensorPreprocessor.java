@@ -0,0 +1,137 @@
+package de.kai_morich.simple_usb_terminal;
+
+import androidx.camera.core.ImageProxy;
+
+import org.tensorflow.lite.DataType;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * sample YUV_420_888 camera frames straight into the [1][height][width][3]
+ * input tensor of the depth model.
+ *
+ * Scaling (nearest neighbour at pixel centers), YUV to RGB conversion and
+ * normalization to [-1,1] as expected by MiDaS are done in a single pass,
+ * without intermediate bitmaps. The tensor buffer is allocated once and reused.
+ *
+ * For UINT8 and INT8 input tensors the normalized value is quantized with the
+ * tensor's scale and zero point, using a lookup table per 8 bit color value.
+ */
+final class TensorPreprocessor {
+
+    private final int width, height;
+    private final ByteBuffer input;
+    private final FloatBuffer inputFloats; // null for quantized input
+    private final float[] normalize = new float[256];
+    private final byte[] quantize = new byte[256];
+
+    private int srcWidth, srcHeight, srcUvPixelStride;
+    private final int[] xOffsets, uvOffsets, yRows;
+
+    TensorPreprocessor(int width, int height) {
+        this(width, height, DataType.FLOAT32, 0, 0);
+    }
+
+    TensorPreprocessor(int width, int height, DataType type, float scale, int zeroPoint) {
+        this.width = width;
+        this.height = height;
+        int bytesPerValue = type == DataType.FLOAT32 ? 4 : 1;
+        input = ByteBuffer.allocateDirect(width * height * 3 * bytesPerValue).order(ByteOrder.nativeOrder());
+        inputFloats = type == DataType.FLOAT32 ? input.asFloatBuffer() : null;
+        xOffsets = new int[width];
+        uvOffsets = new int[width];
+        yRows = new int[height];
+        int qMin = type == DataType.INT8 ? -128 : 0;
+        int qMax = type == DataType.INT8 ? 127 : 255;
+        for(int i = 0; i < 256; i++) {
+            normalize[i] = (i / 255.0f - 0.5f) / 0.5f;
+            if(type != DataType.FLOAT32) {
+                int q = Math.round(normalize[i] / scale) + zeroPoint;
+                quantize[i] = (byte) Math.max(qMin, Math.min(qMax, q));
+            }
+        }
+    }
+
+    int getWidth() { return width; }
+    int getHeight() { return height; }
+
+    ByteBuffer getBuffer() {
+        return input;
+    }
+
+    ByteBuffer process(ImageProxy image) {
+        ImageProxy.PlaneProxy[] planes = image.getPlanes();
+        process(planes[0].getBuffer(), planes[0].getRowStride(),
+                planes[1].getBuffer(), planes[2].getBuffer(),
+                planes[1].getRowStride(), planes[1].getPixelStride(),
+                image.getWidth(), image.getHeight());
+        return input;
+    }
+
+    /**
+     * ARGB pixels already scaled to the tensor size
+     */
+    ByteBuffer process(int[] pixels) {
+        int out = 0;
+        for(int i = 0; i < width * height; i++) {
+            out = put(out, pixels[i]);
+        }
+        input.rewind();
+        return input;
+    }
+
+    void process(ByteBuffer yBuffer, int yRowStride,
+                 ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride,
+                 int srcWidth, int srcHeight) {
+        if(srcWidth != this.srcWidth || srcHeight != this.srcHeight || uvPixelStride != srcUvPixelStride)
+            initSampling(srcWidth, srcHeight, uvPixelStride);
+        int yBase = yBuffer.position();
+        int uBase = uBuffer.position();
+        int vBase = vBuffer.position();
+        int out = 0;
+        for(int y = 0; y < height; y++) {
+            int sy = yRows[y];
+            int yRow = yBase + sy * yRowStride;
+            int uvRow = (sy >> 1) * uvRowStride;
+            int uRow = uBase + uvRow;
+            int vRow = vBase + uvRow;
+            for(int x = 0; x < width; x++) {
+                int argb = YuvToRgbConverter.yuvToArgb(
+                        yBuffer.get(yRow + xOffsets[x]) & 0xff,
+                        uBuffer.get(uRow + uvOffsets[x]) & 0xff,
+                        vBuffer.get(vRow + uvOffsets[x]) & 0xff);
+                out = put(out, argb);
+            }
+        }
+        input.rewind();
+    }
+
+    private int put(int out, int argb) {
+        if(inputFloats != null) {
+            inputFloats.put(out++, normalize[(argb >> 16) & 0xff]);
+            inputFloats.put(out++, normalize[(argb >> 8) & 0xff]);
+            inputFloats.put(out++, normalize[argb & 0xff]);
+        } else {
+            input.put(out++, quantize[(argb >> 16) & 0xff]);
+            input.put(out++, quantize[(argb >> 8) & 0xff]);
+            input.put(out++, quantize[argb & 0xff]);
+        }
+        return out;
+    }
+
+    private void initSampling(int srcWidth, int srcHeight, int uvPixelStride) {
+        this.srcWidth = srcWidth;
+        this.srcHeight = srcHeight;
+        this.srcUvPixelStride = uvPixelStride;
+        for(int x = 0; x < width; x++) {
+            int sx = (2 * x + 1) * srcWidth / (2 * width);
+            xOffsets[x] = sx;
+            uvOffsets[x] = (sx >> 1) * uvPixelStride;
+        }
+        for(int y = 0; y < height; y++)
+            yRows[y] = (2 * y + 1) * srcHeight / (2 * height);
+    }
+
+}
@@ -18,10 +18,8 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.Looper;
-import android.text.Editable;
 import android.text.Spannable;
 import android.text.SpannableStringBuilder;
-import android.text.method.ScrollingMovementMethod;
 import android.text.style.ForegroundColorSpan;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -30,6 +28,7 @@ import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageButton;
+import android.widget.ListView;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.widget.ToggleButton;
@@ -39,14 +38,13 @@ import androidx.annotation.Nullable;
 import androidx.core.content.ContextCompat;
 import androidx.fragment.app.Fragment;
 
-import com.hoho.android.usbserial.driver.SerialTimeoutException;
 import com.hoho.android.usbserial.driver.UsbSerialDriver;
 import com.hoho.android.usbserial.driver.UsbSerialPort;
 import com.hoho.android.usbserial.driver.UsbSerialProber;
 import com.hoho.android.usbserial.util.XonXoffFilter;
 
 import java.io.IOException;
-import java.util.ArrayDeque;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EnumSet;
@@ -61,7 +59,12 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     private UsbSerialPort usbSerialPort;
     private SerialService service;
 
-    private TextView receiveText;
+    private static final int SCROLLBACK_LINES = 10000;
+    private static final int SCROLLBACK_CHARS = 1000000;
+    private Scrollback scrollback;
+    private static final int HEX_DUMP_MAX_BYTES = 1024 * 1024;
+    private HexDump hexDump; // created when first shown, then records all received bytes
+    private ListView receiveList;
     private TextView sendText;
     private ImageButton sendBtn;
     private TextUtil.HexWatcher hexWatcher;
@@ -69,13 +72,53 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     private Connected connected = Connected.False;
     private boolean initialStart = true;
     private boolean hexEnabled = false;
+    private boolean hexWrap = false;
+    private boolean hexDumpEnabled = false;
+    private static final int HEX_BYTES_PER_LINE = 16;
+    private char[] hexChars = new char[0];                  // reused for hex encoding of received data
+    private final StringBuilder hexText = new StringBuilder();
+    private final ByteRing.Slice filteredSlice = new ByteRing.Slice(); // for data not in the service's read ring
+    private long readDropped;                               // last reported SerialService.getReadDropped()
     private enum SendButtonState {Idle, Busy, Disabled};
 
     private ControlLines controlLines = new ControlLines();
     private XonXoffFilter flowControlFilter;
 
-    private boolean pendingNewline = false;
     private String newline = TextUtil.newline_crlf;
+    private final ReceiveDecoder receiveDecoder = new ReceiveDecoder(Charset.defaultCharset());
+
+    private volatile boolean writeStalled = false;
+    private final SerialWriter.Callback writeCallback = new SerialWriter.Callback() {
+        @Override
+        public void onWriteStalled(byte[] data, int remaining) { // e.g. writing large data at low baud rate or suspended by flow control
+            if(!writeStalled) {
+                writeStalled = true;
+                mainLooper.post(() -> updateSendBtn(controlLines.sendAllowed ? SendButtonState.Busy : SendButtonState.Disabled));
+            }
+        }
+
+        @Override
+        public void onWriteComplete(byte[] data) {
+            if(writeStalled) {
+                writeStalled = false;
+                mainLooper.post(() -> updateSendBtn(controlLines.sendAllowed ? SendButtonState.Idle : SendButtonState.Disabled));
+            }
+        }
+
+        @Override
+        public void onWriteDropped(byte[] data) {
+            mainLooper.post(() -> status("send data dropped, write queue full"));
+        }
+
+        @Override
+        public void onWriteError(byte[] data, IOException e) {
+            writeStalled = false;
+            mainLooper.post(() -> {
+                if(connected == Connected.True)
+                    onSerialIoError(e);
+            });
+        }
+    };
 
     public TerminalFragment() {
         mainLooper = new Handler(Looper.getMainLooper());
@@ -98,6 +141,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         super.onCreate(savedInstanceState);
         setHasOptionsMenu(true);
         setRetainInstance(true);
+        scrollback = new Scrollback(SCROLLBACK_LINES, SCROLLBACK_CHARS); // retained with fragment over view recreation
         deviceId = getArguments().getInt("device");
         portNum = getArguments().getInt("port");
         baudRate = getArguments().getInt("baud");
@@ -180,9 +224,8 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     @Override
     public View onCreateView(@NonNull LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
         View view = inflater.inflate(R.layout.fragment_terminal, container, false);
-        receiveText = view.findViewById(R.id.receive_text);                          // TextView performance decreases with number of spans
-        receiveText.setTextColor(getResources().getColor(R.color.colorRecieveText)); // set as default color to reduce number of spans
-        receiveText.setMovementMethod(ScrollingMovementMethod.getInstance());
+        receiveList = view.findViewById(R.id.receive_text); // only visible lines are laid out, default color set in scrollback_line
+        receiveList.setAdapter(hexDumpEnabled ? hexDump : scrollback);
 
         sendText = view.findViewById(R.id.send_text);
         sendBtn = view.findViewById(R.id.send_btn);
@@ -204,6 +247,9 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     public void onPrepareOptionsMenu(@NonNull Menu menu) {
         menu.findItem(R.id.hex).setChecked(hexEnabled);
+        menu.findItem(R.id.hexWrap).setChecked(hexWrap);
+        menu.findItem(R.id.hexDump).setChecked(hexDumpEnabled);
+        menu.findItem(R.id.capture).setChecked(service != null && service.isCapturing());
         controlLines.onPrepareOptionsMenu(menu);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
             menu.findItem(R.id.backgroundNotification).setChecked(service != null && service.areNotificationsEnabled());
@@ -217,7 +263,9 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public boolean onOptionsItemSelected(MenuItem item) {
         int id = item.getItemId();
         if (id == R.id.clear) {
-            receiveText.setText("");
+            scrollback.clear();
+            if (hexDump != null)
+                hexDump.clear();
             return true;
         } else if (id == R.id.newline) {
             String[] newlineNames = getResources().getStringArray(R.array.newline_names);
@@ -227,17 +275,30 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
             builder.setTitle("Newline");
             builder.setSingleChoiceItems(newlineNames, pos, (dialog, which) -> {
                 newline = newlineValues[which];
+                receiveDecoder.setNewline(newline);
                 dialog.dismiss();
             });
             builder.create().show();
             return true;
         } else if (id == R.id.hex) {
             hexEnabled = !hexEnabled;
+            receiveDecoder.reset();
             sendText.setText("");
             hexWatcher.enable(hexEnabled);
             sendText.setHint(hexEnabled ? "HEX mode" : "");
             item.setChecked(hexEnabled);
             return true;
+        } else if (id == R.id.hexWrap) {
+            hexWrap = !hexWrap;
+            item.setChecked(hexWrap);
+            return true;
+        } else if (id == R.id.hexDump) {
+            hexDumpEnabled = !hexDumpEnabled;
+            if (hexDumpEnabled && hexDump == null)
+                hexDump = new HexDump(HEX_DUMP_MAX_BYTES);
+            receiveList.setAdapter(hexDumpEnabled ? hexDump : scrollback);
+            item.setChecked(hexDumpEnabled);
+            return true;
         } else if (id == R.id.controlLines) {
             item.setChecked(controlLines.showControlLines(!item.isChecked()));
             return true;
@@ -253,6 +314,17 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
                 }
             }
             return true;
+        } else if (id == R.id.capture) {
+            if (service.isCapturing()) {
+                service.stopCapture(); // result is shown when remaining data is written
+            } else {
+                status("capture to " + service.startCapture().getDir());
+            }
+            item.setChecked(service.isCapturing());
+            return true;
+        } else if (id == R.id.latency) {
+            status(LatencyStats.dump());
+            return true;
         } else if (id == R.id.sendBreak) {
             try {
                 usbSerialPort.setBreak(true);
@@ -348,11 +420,16 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         String msg;
         byte[] data;
         if(hexEnabled) {
-            StringBuilder sb = new StringBuilder();
-            TextUtil.toHexString(sb, TextUtil.fromHexString(str));
-            TextUtil.toHexString(sb, newline.getBytes());
-            msg = sb.toString();
-            data = TextUtil.fromHexString(msg);
+            // decode once into the final array, newline appended without hex round-trip
+            byte[] newlineBytes = newline.getBytes();
+            int length = TextCodec.hexDecodedLength(str, 0, str.length());
+            data = new byte[length + newlineBytes.length];
+            TextCodec.HexDecoder decoder = new TextCodec.HexDecoder();
+            length = decoder.decode(str, 0, str.length(), data, 0, length);
+            length += decoder.finish(data, length);
+            System.arraycopy(newlineBytes, 0, data, length, newlineBytes.length);
+            char[] hexChars = new char[TextCodec.hexLength(data.length)];
+            msg = new String(hexChars, 0, TextCodec.toHexChars(data, 0, data.length, hexChars, 0, 0));
         } else {
             msg = str;
             data = (str + newline).getBytes();
@@ -360,72 +437,64 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
         try {
             SpannableStringBuilder spn = new SpannableStringBuilder(msg + '\n');
             spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorSendText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            receiveText.append(spn);
-            service.write(data);
-        } catch (SerialTimeoutException e) { // e.g. writing large data at low baud rate or suspended by flow control
-            mainLooper.post(() -> sendAgain(data, e.bytesTransferred));
+            scrollback.append(spn);
+            service.write(data, writeCallback);
+        } catch (SerialWriter.QueueFullException e) {
+            status("send failed: " + e.getMessage());
         } catch (Exception e) {
             onSerialIoError(e);
         }
     }
 
-    private void sendAgain(byte[] data0, int offset) {
-        updateSendBtn(controlLines.sendAllowed ? SendButtonState.Busy : SendButtonState.Disabled);
-        if (connected != Connected.True) {
-            return;
+    /**
+     * slice of the service's read ring, only valid during the call
+     */
+    private void receive(ByteRing.Slice slice) {
+        long startNanos = System.nanoTime();
+        if (flowControlFilter != null) {
+            byte[] data = flowControlFilter.filter(slice.toArray());
+            slice = filteredSlice.set(data, 0, data.length);
         }
-        byte[] data;
-        if (offset == 0) {
-            data = data0;
+        byte[] buffer = slice.array();
+        // raw bytes once the dump was shown, rows are formatted when scrolled into view
+        if (hexDump != null)
+            for (int i = 0; i < slice.segments(); i++)
+                hexDump.append(buffer, slice.offset(i), slice.offset(i) + slice.length(i));
+        // scrollback is bounded, so it is updated also while the dump is shown, without gaps in text or decoder state
+        if (hexEnabled) {
+            if (slice.segments() > 1) // wrapped around end of ring, keep one line with continuous wrapping
+                slice = filteredSlice.set(slice.toArray(), 0, slice.length());
+            receiveHex(slice.array(), slice.offset(0), slice.length(0));
         } else {
-            data = new byte[data0.length - offset];
-            System.arraycopy(data0, offset, data, 0, data.length);
-        }
-        try {
-            service.write(data);
-        } catch (SerialTimeoutException e) {
-            mainLooper.post(() -> sendAgain(data, e.bytesTransferred));
-            return;
-        } catch (Exception e) {
-            onSerialIoError(e);
+            // single pass over the bytes, CR+LF and characters split across fragments are
+            // resolved by the decoder state, so text already shown is never edited
+            receiveDecoder.clearText();
+            for (int i = 0; i < slice.segments(); i++)
+                receiveDecoder.decode(buffer, slice.offset(i), slice.length(i));
+            scrollback.append(TextUtil.toCaretString(receiveDecoder));
         }
-        updateSendBtn(controlLines.sendAllowed ? SendButtonState.Idle : SendButtonState.Disabled);
+        LatencyStats.record(LatencyStats.Stage.Receive, System.nanoTime() - startNanos);
     }
 
-    private void receive(ArrayDeque<byte[]> datas) {
-        SpannableStringBuilder spn = new SpannableStringBuilder();
-        for (byte[] data : datas) {
-            if (flowControlFilter != null)
-                data = flowControlFilter.filter(data);
-            if (hexEnabled) {
-                spn.append(TextUtil.toHexString(data)).append('\n');
-            } else {
-                String msg = new String(data);
-                if (newline.equals(TextUtil.newline_crlf) && msg.length() > 0) {
-                    // don't show CR as ^M if directly before LF
-                    msg = msg.replace(TextUtil.newline_crlf, TextUtil.newline_lf);
-                    // special handling if CR and LF come in separate fragments
-                    if (pendingNewline && msg.charAt(0) == '\n') {
-                        if(spn.length() >= 2) {
-                            spn.delete(spn.length() - 2, spn.length());
-                        } else {
-                            Editable edt = receiveText.getEditableText();
-                            if (edt != null && edt.length() >= 2)
-                                edt.delete(edt.length() - 2, edt.length());
-                        }
-                    }
-                    pendingNewline = msg.charAt(msg.length() - 1) == '\r';
-                }
-                spn.append(TextUtil.toCaretString(msg, newline.length() != 0));
-            }
-        }
-        receiveText.append(spn);
+    /**
+     * hex encode into reused buffers, without spans
+     */
+    private void receiveHex(byte[] data, int offset, int length) {
+        if (length == 0)
+            return;
+        int chars = TextCodec.hexLength(length);
+        if (hexChars.length < chars)
+            hexChars = new char[Math.max(chars, 2 * hexChars.length)];
+        chars = TextCodec.toHexChars(data, offset, offset + length, hexChars, 0, hexWrap ? HEX_BYTES_PER_LINE : 0);
+        hexText.setLength(0);
+        hexText.append(hexChars, 0, chars).append('\n');
+        scrollback.append(hexText);
     }
 
     void status(String str) {
         SpannableStringBuilder spn = new SpannableStringBuilder(str + '\n');
         spn.setSpan(new ForegroundColorSpan(getResources().getColor(R.color.colorStatusText)), 0, spn.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-        receiveText.append(spn);
+        scrollback.append(spn);
     }
 
     void updateSendBtn(SendButtonState state) {
@@ -460,6 +529,7 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
     public void onSerialConnect() {
         status("connected");
         connected = Connected.True;
+        receiveDecoder.reset();
         controlLines.start();
     }
 
@@ -471,13 +541,16 @@ public class TerminalFragment extends Fragment implements ServiceConnection, Ser
 
     @Override
     public void onSerialRead(byte[] data) {
-        ArrayDeque<byte[]> datas = new ArrayDeque<>();
-        datas.add(data);
-        receive(datas);
+        receive(filteredSlice.set(data, 0, data.length));
     }
 
-    public void onSerialRead(ArrayDeque<byte[]> datas) {
-        receive(datas);
+    public void onSerialRead(ByteRing.Slice slice) {
+        receive(slice);
+        long dropped = service.getReadDropped();
+        if (dropped != readDropped) {
+            status("display too slow, " + (dropped - readDropped) + " bytes dropped");
+            readDropped = dropped;
+        }
     }
 
     @Override
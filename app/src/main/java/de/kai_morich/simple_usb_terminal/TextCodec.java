@@ -0,0 +1,226 @@
+package de.kai_morich.simple_usb_terminal;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Android independent part of TextUtil, also used by the benchmark module
+ */
+final class TextCodec {
+
+    final static String newline_crlf = "\r\n";
+    final static String newline_lf = "\n";
+
+    static final int MAX_CARET_SPANS = 64; // caret highlight spans per chunk of received text, the last covers the whole tail incl. printable text
+
+    private static final char[] HEX_PAIRS = new char[2 * 256]; // two hex digits for each byte value
+    private static final byte[] HEX_VALUES = new byte[128];    // value of hex digit, -1 for other chars
+
+    static {
+        final char[] digits = "0123456789ABCDEF".toCharArray();
+        for(int i = 0; i < 256; i++) {
+            HEX_PAIRS[2 * i] = digits[i >> 4];
+            HEX_PAIRS[2 * i + 1] = digits[i & 15];
+        }
+        Arrays.fill(HEX_VALUES, (byte) -1);
+        for(int i = 0; i < 16; i++) {
+            HEX_VALUES[digits[i]] = (byte) i;
+            HEX_VALUES[Character.toLowerCase(digits[i])] = (byte) i;
+        }
+    }
+
+    private TextCodec() {}
+
+    static byte[] fromHexString(final CharSequence s) {
+        byte[] buf = new byte[hexDecodedLength(s, 0, s.length())];
+        HexDecoder decoder = new HexDecoder();
+        int length = decoder.decode(s, 0, s.length(), buf, 0, buf.length);
+        decoder.finish(buf, length);
+        return buf;
+    }
+
+    /**
+     * bytes decoded from [begin, end) including a trailing single digit
+     */
+    static int hexDecodedLength(final CharSequence s, int begin, int end) {
+        int digits = 0;
+        for(int pos = begin; pos < end; pos++) {
+            char c = s.charAt(pos);
+            if(c < 128 && HEX_VALUES[c] >= 0)
+                digits++;
+        }
+        return (digits + 1) / 2;
+    }
+
+    /**
+     * streaming hex decoder into caller supplied buffers
+     *
+     * Non hex characters are skipped, hex digits are paired independent of separators.
+     * A byte can be split across chunks. Decoding stops when the output is full, so
+     * input can be processed in a loop with a fixed size buffer.
+     */
+    static final class HexDecoder {
+        private int pending = -1; // high nibble of incomplete byte
+        private int consumed;
+
+        /** chars consumed by last decode() */
+        int getConsumed() { return consumed; }
+
+        boolean hasPending() { return pending >= 0; }
+
+        void reset() { pending = -1; }
+
+        /**
+         * @return number of bytes written
+         */
+        int decode(final CharSequence s, int begin, int end, byte[] out, int offset, int length) {
+            int o = offset;
+            int limit = offset + length;
+            int pos = begin;
+            for(; pos < end; pos++) {
+                char c = s.charAt(pos);
+                int value = c < 128 ? HEX_VALUES[c] : -1;
+                if(value < 0)
+                    continue;
+                if(pending < 0) {
+                    if(o == limit)
+                        break;
+                    pending = value;
+                } else {
+                    out[o++] = (byte) (pending << 4 | value);
+                    pending = -1;
+                }
+            }
+            consumed = pos - begin;
+            return o - offset;
+        }
+
+        /**
+         * @return number of bytes written
+         */
+        int decode(final CharSequence s, int begin, int end, ByteBuffer out) {
+            int start = out.position();
+            int pos = begin;
+            for(; pos < end; pos++) {
+                char c = s.charAt(pos);
+                int value = c < 128 ? HEX_VALUES[c] : -1;
+                if(value < 0)
+                    continue;
+                if(pending < 0) {
+                    if(!out.hasRemaining())
+                        break;
+                    pending = value;
+                } else {
+                    out.put((byte) (pending << 4 | value));
+                    pending = -1;
+                }
+            }
+            consumed = pos - begin;
+            return out.position() - start;
+        }
+
+        /**
+         * end of input, a trailing single digit becomes a byte
+         *
+         * @return number of bytes written
+         */
+        int finish(byte[] out, int offset) {
+            if(pending < 0)
+                return 0;
+            out[offset] = (byte) pending;
+            pending = -1;
+            return 1;
+        }
+    }
+
+    static void toHexString(StringBuilder sb, final byte[] buf, int begin, int end) {
+        if(begin >= end)
+            return;
+        sb.ensureCapacity(sb.length() + hexLength(end - begin) + 1);
+        if(sb.length() > 0)
+            sb.append(' ');
+        for(int pos = begin; pos < end; pos++) {
+            if(pos > begin)
+                sb.append(' ');
+            int i = (buf[pos] & 0xff) << 1;
+            sb.append(HEX_PAIRS[i]).append(HEX_PAIRS[i + 1]);
+        }
+    }
+
+    /**
+     * chars required by toHexChars(), line wrapping replaces separators, so it doesn't change the length
+     */
+    static int hexLength(int bytes) {
+        return bytes == 0 ? 0 : 3 * bytes - 1;
+    }
+
+    /**
+     * table driven hex encoding into a reusable array, bytes are separated by ' ',
+     * or by '\n' after every bytesPerLine bytes
+     *
+     * @param bytesPerLine 0 for no line wrapping
+     * @return number of chars written
+     */
+    static int toHexChars(final byte[] buf, int begin, int end, char[] out, int offset, int bytesPerLine) {
+        int o = offset;
+        int column = 0;
+        for(int pos = begin; pos < end; pos++) {
+            if(pos > begin) {
+                if(++column == bytesPerLine) {
+                    out[o++] = '\n';
+                    column = 0;
+                } else {
+                    out[o++] = ' ';
+                }
+            }
+            int i = (buf[pos] & 0xff) << 1;
+            out[o++] = HEX_PAIRS[i];
+            out[o++] = HEX_PAIRS[i + 1];
+        }
+        return o - offset;
+    }
+
+    static final int HEX_DUMP_BYTES = 16;
+    static final int HEX_DUMP_CHARS = 16 + 1 + 3 * HEX_DUMP_BYTES + 2 + 2 + HEX_DUMP_BYTES + 1; // with longest offset
+
+    /**
+     * one row of a classic hex dump, e.g.
+     * 00000010  48 65 6C 6C 6F 0A 00 01  02 03 04 05 06 07 08 09  |Hello...........|
+     *
+     * offset has 8 hex digits, more if required. A short last row is padded, so the
+     * ASCII column stays aligned.
+     *
+     * @return number of chars written, at most HEX_DUMP_CHARS
+     */
+    static int toHexDumpRow(long offset, final byte[] buf, int begin, int end, char[] out, int o) {
+        int start = o;
+        int digits = 8;
+        while(digits < 16 && (offset >>> (4 * digits)) != 0)
+            digits++;
+        for(int shift = 4 * (digits - 1); shift >= 0; shift -= 4)
+            out[o++] = HEX_PAIRS[2 * (int) ((offset >>> shift) & 15) + 1];
+        out[o++] = ' ';
+        for(int i = 0; i < HEX_DUMP_BYTES; i++) {
+            if(i % 8 == 0)
+                out[o++] = ' ';
+            if(begin + i < end) {
+                int j = (buf[begin + i] & 0xff) << 1;
+                out[o++] = HEX_PAIRS[j];
+                out[o++] = HEX_PAIRS[j + 1];
+            } else {
+                out[o++] = ' ';
+                out[o++] = ' ';
+            }
+            out[o++] = ' ';
+        }
+        out[o++] = ' ';
+        out[o++] = '|';
+        for(int pos = begin; pos < end; pos++) {
+            int b = buf[pos] & 0xff;
+            out[o++] = b >= 32 && b < 127 ? (char) b : '.';
+        }
+        out[o++] = '|';
+        return o - start;
+    }
+
+}
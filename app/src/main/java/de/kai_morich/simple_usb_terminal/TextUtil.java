@@ -10,33 +10,15 @@ import android.widget.TextView;
 
 import androidx.annotation.ColorInt;
 
-import java.io.ByteArrayOutputStream;
-
 final class TextUtil {
 
     @ColorInt static int caretBackground = 0xff666666;
 
-    final static String newline_crlf = "\r\n";
-    final static String newline_lf = "\n";
+    final static String newline_crlf = TextCodec.newline_crlf;
+    final static String newline_lf = TextCodec.newline_lf;
 
     static byte[] fromHexString(final CharSequence s) {
-        ByteArrayOutputStream buf = new ByteArrayOutputStream();
-        byte b = 0;
-        int nibble = 0;
-        for(int pos = 0; pos<s.length(); pos++) {
-            if(nibble==2) {
-                buf.write(b);
-                nibble = 0;
-                b = 0;
-            }
-            int c = s.charAt(pos);
-            if(c>='0' && c<='9') { nibble++; b *= 16; b += c-'0';    }
-            if(c>='A' && c<='F') { nibble++; b *= 16; b += c-'A'+10; }
-            if(c>='a' && c<='f') { nibble++; b *= 16; b += c-'a'+10; }
-        }
-        if(nibble>0)
-            buf.write(b);
-        return buf.toByteArray();
+        return TextCodec.fromHexString(s);
     }
 
     static String toHexString(final byte[] buf) {
@@ -54,47 +36,24 @@ final class TextUtil {
     }
 
     static void toHexString(StringBuilder sb, final byte[] buf, int begin, int end) {
-        for(int pos=begin; pos<end; pos++) {
-            if(sb.length()>0)
-                sb.append(' ');
-            int c;
-            c = (buf[pos]&0xff) / 16;
-            if(c >= 10) c += 'A'-10;
-            else        c += '0';
-            sb.append((char)c);
-            c = (buf[pos]&0xff) % 16;
-            if(c >= 10) c += 'A'-10;
-            else        c += '0';
-            sb.append((char)c);
-        }
+        TextCodec.toHexString(sb, buf, begin, end);
     }
 
     /**
-     * use https://en.wikipedia.org/wiki/Caret_notation to avoid invisible control characters
+     * text decoded since last ReceiveDecoder.clearText() with highlighted caret runs.
+     * TextView gets slow with many spans, so with more than TextCodec.MAX_CARET_SPANS runs
+     * the last span highlights the whole tail from the next run to the end of the last run,
+     * printable text included. Within that tail, caret notation can not be told apart from
+     * printable text like "^A".
      */
-    static CharSequence toCaretString(CharSequence s, boolean keepNewline) {
-        return toCaretString(s, keepNewline, s.length());
-    }
-
-    static CharSequence toCaretString(CharSequence s, boolean keepNewline, int length) {
-        boolean found = false;
-        for (int pos = 0; pos < length; pos++) {
-            if (s.charAt(pos) < 32 && (!keepNewline ||s.charAt(pos)!='\n')) {
-                found = true;
-                break;
-            }
-        }
-        if(!found)
-            return s;
-        SpannableStringBuilder sb = new SpannableStringBuilder();
-        for(int pos=0; pos<length; pos++)
-            if (s.charAt(pos) < 32 && (!keepNewline ||s.charAt(pos)!='\n')) {
-                sb.append('^');
-                sb.append((char)(s.charAt(pos) + 64));
-                sb.setSpan(new BackgroundColorSpan(caretBackground), sb.length()-2, sb.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
-            } else {
-                sb.append(s.charAt(pos));
-            }
+    static CharSequence toCaretString(ReceiveDecoder decoder) {
+        SpannableStringBuilder sb = new SpannableStringBuilder(decoder.getText());
+        int runs = decoder.getCaretRunCount();
+        int separate = runs > TextCodec.MAX_CARET_SPANS ? TextCodec.MAX_CARET_SPANS - 1 : runs;
+        for(int run = 0; run < separate; run++)
+            sb.setSpan(new BackgroundColorSpan(caretBackground), decoder.getCaretRunStart(run), decoder.getCaretRunEnd(run), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+        if(separate < runs)
+            sb.setSpan(new BackgroundColorSpan(caretBackground), decoder.getCaretRunStart(separate), decoder.getCaretRunEnd(runs - 1), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
         return sb;
     }
 
@@ -0,0 +1,230 @@
+package de.kai_morich.simple_usb_terminal;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * staged camera -> preprocess -> inference -> decision pipeline
+ *
+ * The camera analyzer thread preprocesses into one of two input buffers and hands it
+ * to the inference thread, so frame N+1 is converted while frame N is inferred.
+ * The decision listener runs on the inference thread right after each inference,
+ * while the output buffer of the model is valid.
+ *
+ * If both buffers are in use, a frame that is still waiting for inference is replaced
+ * by the newer frame, so the inference thread always gets the latest frame.
+ *
+ * An optional MotionGate skips frames that hardly differ from the last inferred frame,
+ * so the last depth estimate and decision stay valid.
+ * An optional LatencyGovernor gets the time from start of preprocessing to end of decision
+ * of every frame, and its level sets the analysis rate and model input size.
+ */
+final class VisionPipeline {
+
+    private final static String TAG = VisionPipeline.class.getSimpleName();
+
+    interface Listener {
+        /** called on inference thread */
+        void onDepth(DepthModel model, long timestamp);
+    }
+
+    private static class Slot {
+        TensorPreprocessor preprocessor;
+        ByteBuffer input;
+        long timestamp;
+        long startNanos;
+        long preprocessedNanos;
+
+        Slot(TensorPreprocessor preprocessor) { this.preprocessor = preprocessor; }
+    }
+
+    private final DepthModel model;
+    private final Listener listener;
+    private final AllocationCounters allocationCounters;
+    private final LatencyGovernor governor;
+    private final MotionGate motionGate;
+    private final ArrayBlockingQueue<Slot> free = new ArrayBlockingQueue<>(2);
+    private final ArrayBlockingQueue<Slot> filled = new ArrayBlockingQueue<>(2);
+    private final Thread inferenceThread;
+    private volatile boolean running = true;
+
+    private volatile int frameInterval = 1;
+    private volatile int inputSize;
+    private long frameNumber;
+
+    private volatile long submitted, skipped, gated, replaced, dropped, inferred, failed;
+    private long frameStartNanos, preprocessNanos, queueNanos, inferenceNanos; // of current frame, inference thread only
+
+    /**
+     * @param governor null for fixed rate and input size
+     * @param motionGate null to infer every frame
+     */
+    VisionPipeline(DepthModel model, Listener listener, AllocationCounters allocationCounters,
+                   LatencyGovernor governor, MotionGate motionGate) {
+        this.model = model;
+        this.listener = listener;
+        this.allocationCounters = allocationCounters;
+        this.governor = governor;
+        this.motionGate = motionGate;
+        inputSize = model.inputWidth;
+        free.add(new Slot(model.createPreprocessor()));
+        free.add(new Slot(model.createPreprocessor()));
+        inferenceThread = new Thread(this::runInference, "inference");
+        inferenceThread.start();
+    }
+
+    /**
+     * preprocess on the calling (camera analyzer) thread. The image can be closed after return
+     */
+    void submit(ImageProxy image) {
+        if(!running)
+            return;
+        if(frameNumber++ % frameInterval != 0) {
+            skipped++;
+            return;
+        }
+        long startNanos = SystemClock.elapsedRealtimeNanos();
+        submitted++;
+        Slot slot = free.poll();
+        boolean pending = false;
+        if(slot == null) {
+            slot = filled.poll(); // not yet started, replace with newer frame
+            if(slot == null) {
+                dropped++;
+                return;
+            }
+            pending = true;
+        }
+        // check only with a slot at hand, else an accepted frame could get dropped
+        if(motionGate != null && !motionGate.accept(image, startNanos)) {
+            if(pending) filled.add(slot);
+            else        free.add(slot);
+            gated++;
+            return;
+        }
+        if(pending)
+            replaced++;
+        allocationCounters.begin(AllocationCounters.Stage.Preprocess);
+        int size = inputSize;
+        if(slot.preprocessor.getWidth() != size)
+            slot.preprocessor = model.createPreprocessor(size); // only after governor level change
+        slot.input = slot.preprocessor.process(image);
+        slot.timestamp = image.getImageInfo().getTimestamp();
+        slot.startNanos = startNanos;
+        allocationCounters.end(AllocationCounters.Stage.Preprocess);
+        slot.preprocessedNanos = SystemClock.elapsedRealtimeNanos();
+        LatencyStats.record(LatencyStats.Stage.Preprocess, slot.preprocessedNanos - startNanos);
+        filled.add(slot);
+    }
+
+    /**
+     * a failing frame is logged and skipped, so a single bad frame doesn't stop the pipeline.
+     * The model is closed here when the loop exits, so it is never closed during a run
+     */
+    private void runInference() {
+        try {
+            while(running) {
+                Slot slot = filled.take();
+                if(slot.preprocessor.getWidth() != model.inputWidth) { // preprocessed before resize
+                    free.add(slot);
+                    continue;
+                }
+                try {
+                    infer(slot);
+                } catch (RuntimeException e) {
+                    failed++;
+                    Log.e(TAG, "inference failed", e);
+                }
+            }
+        } catch (InterruptedException ignored) {
+        } finally {
+            model.close();
+        }
+    }
+
+    private void infer(Slot slot) {
+        long inferenceStartNanos = SystemClock.elapsedRealtimeNanos();
+        allocationCounters.begin(AllocationCounters.Stage.Inference);
+        try {
+            model.run(slot.input);
+        } catch (RuntimeException e) {
+            free.add(slot);
+            throw e;
+        } finally {
+            allocationCounters.end(AllocationCounters.Stage.Inference);
+        }
+        long timestamp = slot.timestamp;
+        frameStartNanos = slot.startNanos;
+        preprocessNanos = slot.preprocessedNanos - slot.startNanos;
+        queueNanos = inferenceStartNanos - slot.preprocessedNanos;
+        inferenceNanos = SystemClock.elapsedRealtimeNanos() - inferenceStartNanos;
+        LatencyStats.record(LatencyStats.Stage.Queue, queueNanos);
+        LatencyStats.record(LatencyStats.Stage.Inference, inferenceNanos);
+        free.add(slot); // preprocessing of next frame can start while decision is running
+        inferred++;
+        listener.onDepth(model, timestamp);
+        if(governor != null && governor.record(SystemClock.elapsedRealtimeNanos() - frameStartNanos))
+            applyLevel();
+    }
+
+    /**
+     * called on inference thread, so the model can be resized between runs
+     */
+    private void applyLevel() {
+        LatencyGovernor.Level level = governor.getLevel();
+        try {
+            model.resizeInput(level.inputSize);
+        } catch (Exception e) {
+            Log.w(TAG, "model input size " + level.inputSize + " not supported", e);
+            governor.limit(level);
+            level = governor.getLevel();
+            try {
+                model.resizeInput(level.inputSize);
+            } catch (Exception e2) {
+                Log.w(TAG, "model input size " + level.inputSize + " not supported, keeping " + model.inputWidth, e2);
+                governor.limit(level);
+            }
+        }
+        frameInterval = level.frameInterval;
+        inputSize = model.inputWidth; // last size that worked, resizeInput() restores it on failure
+        if(motionGate != null)
+            motionGate.reset();
+        Log.d(TAG, "level " + level + ", average " + governor.getAverageNanos() / 1000000 + " ms");
+    }
+
+    /**
+     * stop inference thread, which closes the model after a running inference has finished
+     */
+    void stop() {
+        running = false;
+        inferenceThread.interrupt();
+        try {
+            inferenceThread.join(1000);
+        } catch (InterruptedException ignored) {
+        }
+        if(inferenceThread.isAlive())
+            Log.w(TAG, "inference still running, model is closed when it finishes");
+    }
+
+    /*
+     * durations of the current frame, only valid in Listener.onDepth()
+     */
+    long getFrameStartNanos() { return frameStartNanos; }
+    long getPreprocessNanos() { return preprocessNanos; }
+    long getQueueNanos() { return queueNanos; }
+    long getInferenceNanos() { return inferenceNanos; }
+
+    long getSubmitted() { return submitted; }
+    long getSkipped() { return skipped; }
+    long getGated() { return gated; }
+    long getReplaced() { return replaced; }
+    long getDropped() { return dropped; }
+    long getInferred() { return inferred; }
+    long getFailed() { return failed; }
+
+}
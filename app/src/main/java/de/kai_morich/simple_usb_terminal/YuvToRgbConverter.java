@@ -1,46 +1,76 @@
 package de.kai_morich.simple_usb_terminal;
 
-import android.content.Context;
-import android.graphics.Bitmap;
-import android.graphics.ImageFormat;
-import android.graphics.PixelFormat;
-import android.graphics.YuvImage;
-import android.media.Image;
-import android.os.Build;
-
-import androidx.annotation.RequiresApi;
-
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
-public class YuvToRgbConverter {
-    public YuvToRgbConverter(Context context) {}
-
-    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
-    public void yuvToRgb(Image image, Bitmap output) {
-        ByteBuffer yBuffer = image.getPlanes()[0].getBuffer();
-        ByteBuffer uBuffer = image.getPlanes()[1].getBuffer();
-        ByteBuffer vBuffer = image.getPlanes()[2].getBuffer();
-
-        int ySize = yBuffer.remaining();
-        int uSize = uBuffer.remaining();
-        int vSize = vBuffer.remaining();
-
-        byte[] nv21 = new byte[ySize + uSize + vSize];
+/**
+ * convert YUV_420_888 camera frames to ARGB directly from the plane buffers
+ *
+ * handles row stride and pixel stride, so planar (I420) and interleaved (NV12/NV21)
+ * chroma layouts work alike. Scratch buffers are allocated on first use or
+ * when the frame size changes, so conversion of a steady stream allocates nothing.
+ *
+ * The app samples frames with TensorPreprocessor, which uses yuvToArgb() per pixel.
+ * The full frame conversion is kept for the benchmark module.
+ */
+final class YuvToRgbConverter {
 
-        yBuffer.get(nv21, 0, ySize);
-        vBuffer.get(nv21, ySize, vSize);
-        uBuffer.get(nv21, ySize + vSize, uSize);
+    private byte[] yRow, uRow, vRow;
 
-        YuvImage yuvImage = new YuvImage(nv21, ImageFormat.NV21, image.getWidth(), image.getHeight(), null);
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        yuvImage.compressToJpeg(new android.graphics.Rect(0, 0, image.getWidth(), image.getHeight()), 100, out);
-        byte[] imageBytes = out.toByteArray();
-
-        Bitmap decoded = android.graphics.BitmapFactory.decodeByteArray(imageBytes, 0, imageBytes.length);
-        if (decoded != null) {
-            android.graphics.Canvas canvas = new android.graphics.Canvas(output);
-            canvas.drawBitmap(decoded, 0, 0, null);
+    /**
+     * output is ARGB_8888 with row stride == width
+     */
+    void yuvToRgb(ByteBuffer yBuffer, int yRowStride,
+                  ByteBuffer uBuffer, ByteBuffer vBuffer, int uvRowStride, int uvPixelStride,
+                  int width, int height, int[] output) {
+        int uvWidth = (width + 1) / 2;
+        int uvRowLength = (uvWidth - 1) * uvPixelStride + 1;
+        if(yRow == null || yRow.length < width)
+            yRow = new byte[width];
+        if(uRow == null || uRow.length < uvRowLength) {
+            uRow = new byte[uvRowLength];
+            vRow = new byte[uvRowLength];
+        }
+        int yBase = yBuffer.position();
+        int uBase = uBuffer.position();
+        int vBase = vBuffer.position();
+        int out = 0;
+        for(int y = 0; y < height; y++) {
+            // only copy the bytes used, the last row of a plane is usually shorter than rowStride
+            yBuffer.position(yBase + y * yRowStride);
+            yBuffer.get(yRow, 0, width);
+            if((y & 1) == 0) {
+                int uvOffset = (y >> 1) * uvRowStride;
+                uBuffer.position(uBase + uvOffset);
+                uBuffer.get(uRow, 0, uvRowLength);
+                vBuffer.position(vBase + uvOffset);
+                vBuffer.get(vRow, 0, uvRowLength);
+            }
+            for(int x = 0; x < width; x++) {
+                int uvPos = (x >> 1) * uvPixelStride;
+                output[out++] = yuvToArgb(yRow[x] & 0xff, uRow[uvPos] & 0xff, vRow[uvPos] & 0xff);
+            }
         }
+        yBuffer.position(yBase);
+        uBuffer.position(uBase);
+        vBuffer.position(vBase);
     }
+
+    /**
+     * BT.601 limited range in 10 bit fixed point, as used by camera YUV_420_888 output
+     */
+    static int yuvToArgb(int y, int u, int v) {
+        int c = y - 16;
+        if(c < 0) c = 0;
+        c *= 1192;
+        int d = u - 128;
+        int e = v - 128;
+        int r = (c + 1634 * e) >> 10;
+        int g = (c - 833 * e - 400 * d) >> 10;
+        int b = (c + 2066 * d) >> 10;
+        if(r < 0) r = 0; else if(r > 255) r = 255;
+        if(g < 0) g = 0; else if(g > 255) g = 255;
+        if(b < 0) b = 0; else if(b > 255) b = 255;
+        return 0xff000000 | (r << 16) | (g << 8) | b;
     }
+
+}
@@ -0,0 +1,172 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class FrameProtocolTest {
+
+    private static class Frame {
+        final int type;
+        final byte[] payload;
+
+        Frame(int type, byte[] payload) { this.type = type; this.payload = payload; }
+    }
+
+    private final List<Frame> frames = new ArrayList<>();
+    private FrameProtocol.Decoder decoder;
+
+    @Before
+    public void setUp() {
+        frames.clear();
+        decoder = new FrameProtocol.Decoder((type, payload, length) -> frames.add(new Frame(type, Arrays.copyOf(payload, length))),
+                FrameProtocol.MAX_PAYLOAD);
+    }
+
+    private static byte[] encode(FrameProtocol.Encoder encoder) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encoder.flush((data, length) -> out.write(data, 0, length));
+        return out.toByteArray();
+    }
+
+    private static byte[] frame(int type, byte[] payload) throws Exception {
+        return encode(new FrameProtocol.Encoder(payload.length + FrameProtocol.OVERHEAD).add(type, payload, 0, payload.length));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for(byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    private void assertFrame(int index, int type, byte[] payload) {
+        assertEquals(type, frames.get(index).type);
+        assertArrayEquals(payload, frames.get(index).payload);
+    }
+
+    @Test
+    public void crcCheckValue() {
+        byte[] data = "123456789".getBytes(StandardCharsets.US_ASCII);
+        assertEquals(0x29B1, FrameProtocol.crc16(0xffff, data, 0, data.length));
+    }
+
+    @Test
+    public void encodeFrameLayout() throws Exception {
+        byte[] data = encode(new FrameProtocol.Encoder(16).addMove(50, -120));
+        assertEquals(2 + FrameProtocol.OVERHEAD, data.length);
+        assertEquals((byte) FrameProtocol.SYNC, data[0]);
+        assertEquals(2, data[1]);
+        assertEquals(FrameProtocol.TYPE_MOVE, data[2]);
+        assertEquals(50, data[3]);
+        assertEquals(-100, data[4]); // clamped
+        int crc = FrameProtocol.crc16(0xffff, data, 1, 4);
+        assertEquals((byte) (crc >> 8), data[5]);
+        assertEquals((byte) crc, data[6]);
+    }
+
+    @Test
+    public void roundTrip() throws Exception {
+        byte[] large = new byte[FrameProtocol.MAX_PAYLOAD];
+        for(int i = 0; i < large.length; i++)
+            large[i] = (byte) i;
+        FrameProtocol.Encoder encoder = new FrameProtocol.Encoder(512);
+        encoder.addMove(30, 40).add(FrameProtocol.TYPE_STOP).add(FrameProtocol.TYPE_STATUS, large, 0, large.length);
+        byte[] data = encode(encoder);
+        assertEquals(0, encoder.length());
+
+        decoder.feed(data, 0, data.length);
+        assertEquals(3, frames.size());
+        assertFrame(0, FrameProtocol.TYPE_MOVE, new byte[]{30, 40});
+        assertFrame(1, FrameProtocol.TYPE_STOP, new byte[0]);
+        assertFrame(2, FrameProtocol.TYPE_STATUS, large);
+        assertEquals(3, decoder.getFrames());
+        assertEquals(0, decoder.getCrcErrors());
+        assertEquals(0, decoder.getSkippedBytes());
+    }
+
+    @Test
+    public void splitAcrossFeeds() throws Exception {
+        byte[] data = concat(frame(FrameProtocol.TYPE_ACK, new byte[]{1, 2, 3}), frame(FrameProtocol.TYPE_ACK, new byte[]{4}));
+        for(int i = 0; i < data.length; i++)
+            decoder.feed(data, i, 1);
+        assertEquals(2, frames.size());
+        assertFrame(0, FrameProtocol.TYPE_ACK, new byte[]{1, 2, 3});
+        assertFrame(1, FrameProtocol.TYPE_ACK, new byte[]{4});
+    }
+
+    /**
+     * the format has no escaping, a sync value in length, payload or CRC must not break decoding
+     */
+    @Test
+    public void syncValueInFrame() throws Exception {
+        byte[] payload = new byte[FrameProtocol.SYNC]; // length byte is the sync value
+        Arrays.fill(payload, (byte) FrameProtocol.SYNC);
+        byte[] data = concat(frame(FrameProtocol.TYPE_STATUS, payload), frame(FrameProtocol.SYNC, new byte[]{(byte) FrameProtocol.SYNC}));
+        decoder.feed(data, 0, data.length);
+        assertEquals(2, frames.size());
+        assertFrame(0, FrameProtocol.TYPE_STATUS, payload);
+        assertFrame(1, FrameProtocol.SYNC, new byte[]{(byte) FrameProtocol.SYNC});
+        assertEquals(0, decoder.getCrcErrors());
+    }
+
+    @Test
+    public void skipGarbage() throws Exception {
+        byte[] garbage = {0x00, (byte) FrameProtocol.SYNC, 0x01, 0x11, 0x22, 0x33}; // sync value with short length
+        byte[] data = concat(garbage, frame(FrameProtocol.TYPE_ACK, new byte[]{9}));
+        decoder.feed(data, 0, data.length);
+        assertEquals(1, frames.size());
+        assertFrame(0, FrameProtocol.TYPE_ACK, new byte[]{9});
+        assertEquals(garbage.length, decoder.getSkippedBytes());
+    }
+
+    @Test
+    public void resyncAfterCorruptFrame() throws Exception {
+        byte[] corrupt = frame(FrameProtocol.TYPE_STATUS, new byte[]{1, 2, 3, 4});
+        corrupt[4] ^= 0x10;
+        byte[] data = concat(corrupt, frame(FrameProtocol.TYPE_ACK, new byte[]{5}), frame(FrameProtocol.TYPE_ACK, new byte[]{6}));
+        decoder.feed(data, 0, data.length);
+        assertEquals(2, frames.size());
+        assertFrame(0, FrameProtocol.TYPE_ACK, new byte[]{5});
+        assertFrame(1, FrameProtocol.TYPE_ACK, new byte[]{6});
+        assertEquals(1, decoder.getCrcErrors());
+        assertEquals(corrupt.length, decoder.getSkippedBytes());
+    }
+
+    @Test
+    public void resyncAfterTruncatedFrame() throws Exception {
+        byte[] truncated = Arrays.copyOf(frame(FrameProtocol.TYPE_STATUS, new byte[100]), 10);
+        byte[][] valid = new byte[20][];
+        for(int i = 0; i < valid.length; i++)
+            valid[i] = frame(FrameProtocol.TYPE_MOVE, new byte[]{(byte) i, (byte) -i});
+        byte[] data = concat(truncated, concat(valid));
+        decoder.feed(data, 0, data.length);
+        assertEquals(valid.length, frames.size());
+        for(int i = 0; i < valid.length; i++)
+            assertFrame(i, FrameProtocol.TYPE_MOVE, new byte[]{(byte) i, (byte) -i});
+        assertEquals(truncated.length, decoder.getSkippedBytes());
+    }
+
+    @Test
+    public void rejectTooLongFrame() throws Exception {
+        decoder = new FrameProtocol.Decoder((type, payload, length) -> frames.add(new Frame(type, Arrays.copyOf(payload, length))), 4);
+        byte[] data = concat(frame(FrameProtocol.TYPE_STATUS, new byte[5]), frame(FrameProtocol.TYPE_ACK, new byte[]{7}));
+        decoder.feed(data, 0, data.length);
+        assertEquals(1, frames.size());
+        assertFrame(0, FrameProtocol.TYPE_ACK, new byte[]{7});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void payloadTooLarge() {
+        new FrameProtocol.Encoder(1024).add(FrameProtocol.TYPE_STATUS, new byte[FrameProtocol.MAX_PAYLOAD + 1], 0, FrameProtocol.MAX_PAYLOAD + 1);
+    }
+
+}
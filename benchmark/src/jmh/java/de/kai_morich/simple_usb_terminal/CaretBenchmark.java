@@ -0,0 +1,79 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * receive path of a 1 MB mixed binary stream in 4 kB chunks like from a fast serial port:
+ * ReceiveDecoder with caret notation and runs of control characters, as shown by
+ * TerminalFragment. The 'spans' counter shows how many spans TextView would have to
+ * handle, limited to MAX_CARET_SPANS per chunk.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CaretBenchmark {
+
+    private static final int SIZE = 1024 * 1024;
+    private static final int CHUNK = 4096;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Spans {
+        public long spans;
+
+        @Setup(Level.Iteration)
+        public void reset() { spans = 0; }
+    }
+
+    /** binary: random bytes, text: mostly printable with CR LF, TAB and ESC sequences */
+    @Param({"binary", "text"})
+    public String content;
+
+    private byte[] stream;
+    private ReceiveDecoder decoder;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        stream = new byte[SIZE];
+        for(int i = 0; i < SIZE; i++) {
+            if(content.equals("binary")) {
+                stream[i] = (byte) random.nextInt(256);
+            } else {
+                int r = random.nextInt(100);
+                stream[i] = (byte) (r < 2 ? '\r' : r < 4 ? '\n' : r < 5 ? '\t' : r < 6 ? 27 : 32 + random.nextInt(95));
+            }
+        }
+        decoder = new ReceiveDecoder(StandardCharsets.UTF_8);
+        decoder.setNewline(TextCodec.newline_crlf);
+    }
+
+    @Benchmark
+    public int receive(Spans spans) {
+        decoder.reset();
+        int length = 0;
+        long highlighted = 0;
+        for(int chunk = 0; chunk < SIZE; chunk += CHUNK) {
+            decoder.decode(stream, chunk, CHUNK);
+            length += decoder.getText().length();
+            highlighted += Math.min(decoder.getCaretRunCount(), TextCodec.MAX_CARET_SPANS);
+            decoder.clearText();
+        }
+        spans.spans += highlighted;
+        return length;
+    }
+
+}
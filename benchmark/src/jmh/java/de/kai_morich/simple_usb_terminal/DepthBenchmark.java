@@ -0,0 +1,70 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * depth map statistics, center extraction and normalization as done in MainActivity.detectObstacles
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DepthBenchmark {
+
+    /**
+     * float array instead of TFLite output buffer
+     */
+    static class FloatDepthMap implements DepthZoneAnalyzer.DepthMap {
+        final int width, height;
+        final float[] values;
+
+        FloatDepthMap(int width, int height) {
+            this.width = width;
+            this.height = height;
+            values = new float[width * height];
+        }
+
+        @Override public int getWidth() { return width; }
+        @Override public int getHeight() { return height; }
+        @Override public float get(int index) { return values[index]; }
+    }
+
+    @Param({"256"})
+    public int size;
+
+    private FloatDepthMap map;
+    private DepthZoneAnalyzer analyzer;
+
+    @Setup
+    public void setup() {
+        map = new FloatDepthMap(size, size);
+        Random random = new Random(1);
+        // closer (larger) towards the bottom like a floor, plus noise
+        for(int y = 0; y < size; y++)
+            for(int x = 0; x < size; x++)
+                map.values[y * size + x] = 100f + 400f * y / size + random.nextFloat() * 20f;
+        analyzer = new DepthZoneAnalyzer(3, 2, 0.25f, 2, 0.5f);
+        analyzer.analyze(map); // bin range from previous map
+    }
+
+    @Benchmark
+    public char analyzeAndDecide() {
+        analyzer.analyze(map);
+        return analyzer.decide(0.6f, 0.2f);
+    }
+
+    @Benchmark
+    public float normalizedCenter() {
+        return analyzer.normalize(DepthZoneAnalyzer.center(map));
+    }
+
+}
@@ -0,0 +1,77 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NV21 assembly from YUV_420_888 planes, with the plane layouts seen on devices
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class Nv21Benchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    /** 2 = semi-planar chroma (most devices), 1 = planar chroma */
+    @Param({"2", "1"})
+    public int uvPixelStride;
+
+    /** padding at end of each row */
+    @Param({"0", "64"})
+    public int rowPadding;
+
+    private ByteBuffer y, u, v;
+    private int yRowStride, uvRowStride;
+    private byte[] output;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        yRowStride = WIDTH + rowPadding;
+        y = plane(random, yRowStride * HEIGHT);
+        int uvWidth = WIDTH / 2;
+        int uvHeight = HEIGHT / 2;
+        if(uvPixelStride == 2) {
+            // interleaved VU memory, v and u buffers overlap with offset 1 like on devices
+            uvRowStride = WIDTH + rowPadding;
+            ByteBuffer vu = plane(random, uvRowStride * uvHeight);
+            v = vu.duplicate();
+            v.limit(vu.capacity() - 1);
+            vu.position(1);
+            u = vu.slice();
+        } else {
+            uvRowStride = uvWidth + rowPadding / 2;
+            u = plane(random, uvRowStride * uvHeight);
+            v = plane(random, uvRowStride * uvHeight);
+        }
+        output = new byte[Nv21.size(WIDTH, HEIGHT)];
+    }
+
+    private static ByteBuffer plane(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size); // camera planes are direct buffers
+        buffer.put(data);
+        buffer.rewind();
+        return buffer;
+    }
+
+    @Benchmark
+    public byte[] assemble() {
+        Nv21.assemble(y, yRowStride, u, v, uvRowStride, uvPixelStride, WIDTH, HEIGHT, output);
+        return output;
+    }
+
+}
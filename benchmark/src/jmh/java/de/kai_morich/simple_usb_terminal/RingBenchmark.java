@@ -0,0 +1,84 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hand over of received chunks from the serial read thread to the main thread, as in SerialService.
+ * Throughput of the producer is the number of chunks passed per time
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RingBenchmark {
+
+    @Param({"64", "1024"})
+    public int chunkSize;
+
+    private byte[] chunk;
+    private ByteRing ring;
+    private final ByteRing.Slice slice = new ByteRing.Slice();
+    private ArrayDeque<byte[]> datas;
+
+    @Setup
+    public void setup() {
+        chunk = new byte[chunkSize];
+        ring = new ByteRing(1024 * 1024);
+        datas = new ArrayDeque<>();
+    }
+
+    @Benchmark
+    @Group("ring")
+    public int ringWrite() {
+        int offset = 0;
+        while(offset < chunk.length)
+            offset += ring.write(chunk, offset, chunk.length - offset);
+        return offset;
+    }
+
+    @Benchmark
+    @Group("ring")
+    public int ringRead() {
+        int length = ring.peek(slice).length();
+        ring.release(length);
+        return length;
+    }
+
+    /**
+     * previous implementation, a new array per chunk and a lock per chunk and drain
+     */
+    @Benchmark
+    @Group("locked")
+    public int lockedWrite() {
+        byte[] data = chunk.clone(); // usb-serial-for-android copies each read into a new array
+        synchronized (this) {
+            datas.add(data);
+        }
+        return data.length;
+    }
+
+    @Benchmark
+    @Group("locked")
+    public int lockedRead() {
+        ArrayDeque<byte[]> drained;
+        synchronized (this) {
+            drained = datas;
+            datas = new ArrayDeque<>();
+        }
+        int length = 0;
+        for(byte[] data : drained)
+            length += data.length;
+        return length;
+    }
+
+}
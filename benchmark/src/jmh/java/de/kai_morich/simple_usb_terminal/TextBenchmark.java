@@ -0,0 +1,100 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * hex conversion and caret notation as used by TerminalFragment for received and sent data
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TextBenchmark {
+
+    @Param({"64", "4096"})
+    public int size;
+
+    /** percentage of control characters in text */
+    @Param({"0", "10"})
+    public int controlPercent;
+
+    private byte[] data;
+    private String hex;
+    private char[] hexChars;
+    private final char[] hexDumpRow = new char[TextCodec.HEX_DUMP_CHARS];
+    private final TextCodec.HexDecoder hexDecoder = new TextCodec.HexDecoder();
+    private byte[] decoded;
+    private byte[] text;
+    private final ReceiveDecoder receiveDecoder = new ReceiveDecoder(StandardCharsets.UTF_8);
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        data = new byte[size];
+        random.nextBytes(data);
+        StringBuilder sb = new StringBuilder();
+        TextCodec.toHexString(sb, data, 0, data.length);
+        hex = sb.toString();
+        hexChars = new char[TextCodec.hexLength(size)];
+        decoded = new byte[size];
+        text = new byte[size];
+        for(int i = 0; i < size; i++) {
+            if(random.nextInt(100) < controlPercent)
+                text[i] = (byte) random.nextInt(32);
+            else
+                text[i] = (byte) (32 + random.nextInt(95));
+        }
+    }
+
+    @Benchmark
+    public String toHexString() {
+        StringBuilder sb = new StringBuilder(3 * data.length);
+        TextCodec.toHexString(sb, data, 0, data.length);
+        return sb.toString();
+    }
+
+    @Benchmark
+    public char[] toHexChars() {
+        TextCodec.toHexChars(data, 0, data.length, hexChars, 0, 16);
+        return hexChars;
+    }
+
+    /**
+     * all rows, HexDump formats only visible ones
+     */
+    @Benchmark
+    public char[] toHexDumpRows() {
+        for(int pos = 0; pos < data.length; pos += TextCodec.HEX_DUMP_BYTES)
+            TextCodec.toHexDumpRow(pos, data, pos, Math.min(pos + TextCodec.HEX_DUMP_BYTES, data.length), hexDumpRow, 0);
+        return hexDumpRow;
+    }
+
+    @Benchmark
+    public byte[] fromHexString() {
+        return TextCodec.fromHexString(hex);
+    }
+
+    @Benchmark
+    public byte[] decodeHex() {
+        hexDecoder.decode(hex, 0, hex.length(), decoded, 0, decoded.length);
+        return decoded;
+    }
+
+    @Benchmark
+    public int receiveDecoder() {
+        receiveDecoder.clearText();
+        receiveDecoder.decode(text, 0, text.length);
+        return receiveDecoder.getCaretRunCount();
+    }
+
+}
@@ -0,0 +1,92 @@
+package de.kai_morich.simple_usb_terminal;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * YUV_420_888 to ARGB conversion of a full frame, directly from the planes and via NV21.
+ * The previous NV21 -> JPEG -> Bitmap conversion needs android.graphics, here the via
+ * NV21 case only has the NV21 assembly in front, so it is a lower bound for that path.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class YuvToRgbBenchmark {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+
+    /** 2 = semi-planar chroma (most devices), 1 = planar chroma */
+    @Param({"2", "1"})
+    public int uvPixelStride;
+
+    private ByteBuffer y, u, v;
+    private int uvRowStride;
+    private byte[] nv21;
+    private int[] output;
+    private final YuvToRgbConverter converter = new YuvToRgbConverter();
+
+    @Setup
+    public void setup() {
+        Random random = new Random(1);
+        y = plane(random, WIDTH * HEIGHT);
+        int uvHeight = HEIGHT / 2;
+        if(uvPixelStride == 2) {
+            // interleaved VU memory, v and u buffers overlap with offset 1 like on devices
+            uvRowStride = WIDTH;
+            ByteBuffer vu = plane(random, uvRowStride * uvHeight);
+            v = vu.duplicate();
+            v.limit(vu.capacity() - 1);
+            vu.position(1);
+            u = vu.slice();
+        } else {
+            uvRowStride = WIDTH / 2;
+            u = plane(random, uvRowStride * uvHeight);
+            v = plane(random, uvRowStride * uvHeight);
+        }
+        nv21 = new byte[Nv21.size(WIDTH, HEIGHT)];
+        output = new int[WIDTH * HEIGHT];
+    }
+
+    private static ByteBuffer plane(Random random, int size) {
+        byte[] data = new byte[size];
+        random.nextBytes(data);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(size); // camera planes are direct buffers
+        buffer.put(data);
+        buffer.rewind();
+        return buffer;
+    }
+
+    @Benchmark
+    public int[] direct() {
+        converter.yuvToRgb(y, WIDTH, u, v, uvRowStride, uvPixelStride, WIDTH, HEIGHT, output);
+        return output;
+    }
+
+    @Benchmark
+    public int[] viaNv21() {
+        Nv21.assemble(y, WIDTH, u, v, uvRowStride, uvPixelStride, WIDTH, HEIGHT, nv21);
+        int uvBase = WIDTH * HEIGHT;
+        int out = 0;
+        for(int row = 0; row < HEIGHT; row++) {
+            int uv = uvBase + (row >> 1) * WIDTH;
+            for(int x = 0; x < WIDTH; x++) {
+                int pos = uv + (x & ~1);
+                output[out] = YuvToRgbConverter.yuvToArgb(nv21[out] & 0xff, nv21[pos + 1] & 0xff, nv21[pos] & 0xff);
+                out++;
+            }
+        }
+        return output;
+    }
+
+}